@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Jeremie Bresson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jeremie Bresson - initial API and implementation
+ ******************************************************************************/
+package com.bsiag.htmltools.internal;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+/**
+ * Generates asciidoctor-like pages (sections, listings, figures, tables, cross references, external links) for the
+ * benchmarks.
+ */
+final class BenchmarkPages {
+  static final String SMALL = "small";
+  static final String MEDIUM = "medium";
+  static final String HUGE = "huge";
+
+  static final int IMAGES = 10;
+
+  private BenchmarkPages() {
+  }
+
+  /**
+   * @return the number of sections of a page: about 1.6 KB of HTML per section (small: 8 KB, medium: 80 KB, huge: 3
+   *         MB).
+   */
+  static int sections(String size) {
+    switch (size) {
+      case SMALL:
+        return 5;
+      case MEDIUM:
+        return 50;
+      case HUGE:
+        return 2000;
+      default:
+        throw new IllegalArgumentException("unknown page size: " + size);
+    }
+  }
+
+  static String createPage(String title, int sections) {
+    StringBuilder sb = new StringBuilder();
+    sb.append("<!DOCTYPE html>\n");
+    sb.append("<html lang=\"en\">\n");
+    sb.append("<head>\n");
+    sb.append("<meta charset=\"UTF-8\">\n");
+    sb.append("<meta name=\"generator\" content=\"Asciidoctor 1.5.4\">\n");
+    sb.append("<title>").append(title).append("</title>\n");
+    sb.append("<link rel=\"stylesheet\" href=\"css/asciidoctor.css\">\n");
+    sb.append("</head>\n");
+    sb.append("<body class=\"book toc2 toc-left\">\n");
+    sb.append("<div id=\"header\">\n<h1>").append(title).append("</h1>\n</div>\n");
+    sb.append("<div id=\"content\">\n");
+    for (int i = 1; i <= sections; i++) {
+      sb.append("<div class=\"sect1\">\n");
+      sb.append("<h2 id=\"_section_").append(i).append("\">").append(i).append(". Section ").append(i).append("</h2>\n");
+      sb.append("<div class=\"sectionbody\">\n");
+      sb.append("<div class=\"paragraph\">\n<p>See <a href=\"#lst-").append(i).append("\">the listing</a>, ");
+      sb.append("<a href=\"#fig-").append(i).append("\">the figure</a>, ");
+      sb.append("<a href=\"#tbl-").append(i).append("\">the table</a> ");
+      sb.append("and <a href=\"http://www.example.com/page").append(i).append(".html\">the external page</a>.  \n");
+      sb.append("Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor incididunt ut labore.</p>\n</div>\n");
+
+      sb.append("<div id=\"lst-").append(i).append("\" class=\"listingblock\">\n");
+      sb.append("<div class=\"title\">Listing ").append(i).append(". Code of section ").append(i).append("</div>\n");
+      sb.append("<div class=\"content\">\n<pre class=\"CodeRay highlight\"><code data-lang=\"java\">");
+      sb.append("<span class=\"directive\">public</span> <span class=\"type\">int</span> compute").append(i).append("() {\n");
+      sb.append("    <span class=\"keyword\">return</span> ").append(i).append(";\n}</code></pre>\n</div>\n</div>\n");
+
+      sb.append("<div id=\"fig-").append(i).append("\" class=\"imageblock\">\n");
+      sb.append("<div class=\"content\">\n<img src=\"images/image").append(i % IMAGES).append(".png\" alt=\"image ").append(i).append("\">\n</div>\n");
+      sb.append("<div class=\"title\">Figure ").append(i).append(". Image of section ").append(i).append("</div>\n</div>\n");
+
+      sb.append("<table id=\"tbl-").append(i).append("\" class=\"tableblock frame-all grid-all spread\">\n");
+      sb.append("<caption class=\"title\">Table ").append(i).append(". Results of section ").append(i).append("</caption>\n");
+      sb.append("<tbody>\n");
+      for (int row = 0; row < 3; row++) {
+        sb.append("<tr>\n<td class=\"tableblock halign-left valign-top\"><p class=\"tableblock\">").append(row).append("</p></td>\n");
+        sb.append("<td class=\"tableblock halign-left valign-top\"><p class=\"tableblock\">value ").append(i * row).append("</p></td>\n</tr>\n");
+      }
+      sb.append("</tbody>\n</table>\n");
+      sb.append("</div>\n</div>\n");
+    }
+    sb.append("</div>\n");
+    sb.append("<div id=\"footer\">\n<div id=\"footer-text\">\nVersion 1.0.0\n<br /> Last updated 2016-04-07 06:23:33 CEST\n</div>\n</div>\n");
+    sb.append("</body>\n</html>\n");
+    return sb.toString();
+  }
+
+  /**
+   * Creates a folder with pages, the images and the css file they reference.
+   */
+  static void createInputFolder(File folder, int pages, int sections) throws IOException {
+    for (int i = 0; i < pages; i++) {
+      write(new File(folder, "page" + i + ".html"), createPage("Page " + i, sections));
+    }
+    createAssets(folder);
+  }
+
+  static void createAssets(File folder) throws IOException {
+    for (int i = 0; i < IMAGES; i++) {
+      byte[] image = new byte[20 * 1024];
+      for (int j = 0; j < image.length; j++) {
+        image[j] = (byte) (j * 31 + i);
+      }
+      File file = new File(folder, "images/image" + i + ".png");
+      Files.createParentDirs(file);
+      Files.write(image, file);
+    }
+    StringBuilder css = new StringBuilder();
+    for (int i = 0; i < 500; i++) {
+      css.append(".class").append(i).append(" { color: #").append(Integer.toHexString(0x100000 + i)).append("; }\n");
+    }
+    write(new File(folder, "css/asciidoctor.css"), css.toString());
+  }
+
+  static void write(File file, String content) throws IOException {
+    Files.createParentDirs(file);
+    Files.write(content, file, Charsets.UTF_8);
+  }
+
+  static void deleteRec(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteRec(child);
+      }
+    }
+    file.delete();
+  }
+}
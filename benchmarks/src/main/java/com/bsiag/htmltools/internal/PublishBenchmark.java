@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Jeremie Bresson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jeremie Bresson - initial API and implementation
+ ******************************************************************************/
+package com.bsiag.htmltools.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.io.Files;
+
+/**
+ * Benchmarks of {@link PublishUtility#publishHtmlFiles(ParamPublishHtmlFiles)} (end to end) and of each of its stages,
+ * for small, medium and huge pages.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PublishBenchmark {
+  private static final int PAGES = 10;
+
+  @State(Scope.Benchmark)
+  public static class Page {
+    @Param({BenchmarkPages.SMALL, BenchmarkPages.MEDIUM, BenchmarkPages.HUGE})
+    public String size;
+
+    String html;
+    String serialized;
+    File inFolder;
+    File outFolder;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+      html = BenchmarkPages.createPage("Page", BenchmarkPages.sections(size));
+      serialized = Jsoup.parse(html).toString();
+      inFolder = Files.createTempDir();
+      outFolder = Files.createTempDir();
+      BenchmarkPages.write(new File(inFolder, "page.html"), html);
+      BenchmarkPages.createAssets(inFolder);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+      BenchmarkPages.deleteRec(inFolder);
+      BenchmarkPages.deleteRec(outFolder);
+    }
+  }
+
+  /**
+   * Freshly parsed document, for the stages modifying the document.
+   */
+  @State(Scope.Thread)
+  public static class ParsedPage {
+    Document doc;
+
+    @Setup(Level.Invocation)
+    public void setup(Page page) {
+      doc = Jsoup.parse(page.html);
+    }
+  }
+
+  @State(Scope.Benchmark)
+  public static class Folder {
+    @Param({BenchmarkPages.SMALL, BenchmarkPages.MEDIUM, BenchmarkPages.HUGE})
+    public String size;
+
+    @Param({"1"})
+    public int threads;
+
+    File inFolder;
+    File outFolder;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+      inFolder = Files.createTempDir();
+      outFolder = Files.createTempDir();
+      BenchmarkPages.createInputFolder(inFolder, PAGES, BenchmarkPages.sections(size));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+      BenchmarkPages.deleteRec(inFolder);
+      BenchmarkPages.deleteRec(outFolder);
+    }
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public File publishHtmlFiles(Folder folder) throws IOException {
+    ParamPublishHtmlFiles param = new ParamPublishHtmlFiles();
+    param.setInFolder(folder.inFolder);
+    param.setOutFolder(folder.outFolder);
+    param.setCssReplacement(Collections.<String, File> emptyMap());
+    param.setFixXrefLinks(true);
+    param.setFixExternalLinks(true);
+    param.setThreads(folder.threads);
+    PublishUtility.publishHtmlFiles(param);
+    return folder.outFolder;
+  }
+
+  @Benchmark
+  public Document parse(Page page) {
+    return Jsoup.parse(page.html);
+  }
+
+  @Benchmark
+  public Document fixXrefLinks(ParsedPage parsed) {
+    PublishUtility.fixListingLink(parsed.doc);
+    PublishUtility.fixFigureLink(parsed.doc);
+    PublishUtility.fixTableLink(parsed.doc);
+    return parsed.doc;
+  }
+
+  @Benchmark
+  public Document fixExternalLinks(ParsedPage parsed) {
+    PublishUtility.fixExternalLinks(parsed.doc);
+    return parsed.doc;
+  }
+
+  @Benchmark
+  public Document moveAndCopyImages(Page page, ParsedPage parsed) throws IOException {
+    PublishUtility.moveAndCopyImages(parsed.doc, page.inFolder, page.outFolder, "images/");
+    return parsed.doc;
+  }
+
+  @Benchmark
+  public Document moveAndCopyCss(Page page, ParsedPage parsed) throws IOException {
+    PublishUtility.moveAndCopyCss(parsed.doc, page.inFolder, page.outFolder, "css/", Collections.<String, File> emptyMap());
+    return parsed.doc;
+  }
+
+  @Benchmark
+  public String trimTrailingWhitespaces(Page page) {
+    return PublishUtility.trimTrailingWhitespaces(page.serialized);
+  }
+
+  @Benchmark
+  public File writeDocument(Page page, ParsedPage parsed) throws IOException {
+    File outFile = new File(page.outFolder, "page.html");
+    PublishUtility.writeDocument(parsed.doc, outFile);
+    return outFile;
+  }
+}
@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Jeremie Bresson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jeremie Bresson - initial API and implementation
+ ******************************************************************************/
+package com.bsiag.htmltools.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.io.Files;
+
+/**
+ * Benchmarks of the 'copydocs' comparison: {@link PublishUtility#computeActions(File, File, boolean, int)} on a tree
+ * where the output folder is up to date (all the pages are compared) and
+ * {@link HtmlContentComparator#hasModifications(File, File)} on two equal pages.
+ * <p>
+ * The digests are cached by a comparator for the duration of one run: computeActions and hasModifications measure
+ * the first comparison of the files, hasModificationsCached measures a comparison where both digests are cached.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SyncBenchmark {
+  private static final int FOLDERS = 20;
+  private static final int PAGES_PER_FOLDER = 10;
+
+  @Param({BenchmarkPages.SMALL, BenchmarkPages.MEDIUM, BenchmarkPages.HUGE})
+  public String size;
+
+  @Param({"1"})
+  public int threads;
+
+  private File inFolder;
+  private File outFolder;
+  private File page1;
+  private File page2;
+  private HtmlContentComparator comparator;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    inFolder = Files.createTempDir();
+    outFolder = Files.createTempDir();
+    String page = BenchmarkPages.createPage("Page", BenchmarkPages.sections(size));
+    for (int i = 0; i < FOLDERS; i++) {
+      for (int j = 0; j < PAGES_PER_FOLDER; j++) {
+        String path = "folder" + i + "/page" + j + ".html";
+        BenchmarkPages.write(new File(inFolder, path), page);
+        BenchmarkPages.write(new File(outFolder, path), page.replace("Last updated 2016-04-07", "Last updated 2016-04-08"));
+      }
+    }
+    page1 = new File(inFolder, "folder0/page0.html");
+    page2 = new File(outFolder, "folder0/page0.html");
+    comparator = new HtmlContentComparator();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    BenchmarkPages.deleteRec(inFolder);
+    BenchmarkPages.deleteRec(outFolder);
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public List<FileAction> computeActions() throws IOException {
+    return PublishUtility.computeActions(inFolder, outFolder, true, threads);
+  }
+
+  @Benchmark
+  public boolean hasModifications() throws IOException {
+    return new HtmlContentComparator().hasModifications(page1, page2);
+  }
+
+  @Benchmark
+  public boolean hasModificationsCached() throws IOException {
+    return comparator.hasModifications(page1, page2);
+  }
+}
@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Jeremie Bresson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jeremie Bresson - initial API and implementation
+ ******************************************************************************/
+package com.bsiag.htmltools.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.io.Files;
+
+/**
+ * Benchmark of {@link ZipUtility#zipFolder(File, File, int, int)} on a published folder (pages, images and css).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ZipBenchmark {
+  private static final int PAGES = 10;
+
+  @Param({BenchmarkPages.SMALL, BenchmarkPages.MEDIUM, BenchmarkPages.HUGE})
+  public String size;
+
+  @Param({"6"})
+  public int level;
+
+  @Param({"1"})
+  public int threads;
+
+  private File folder;
+  private File zipFile;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    folder = Files.createTempDir();
+    BenchmarkPages.createInputFolder(folder, PAGES, BenchmarkPages.sections(size));
+    zipFile = File.createTempFile("benchmark", ".zip");
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    BenchmarkPages.deleteRec(folder);
+    zipFile.delete();
+  }
+
+  @Benchmark
+  public File zipFolder() throws IOException {
+    ZipUtility.zipFolder(folder, zipFile, level, threads);
+    return zipFile;
+  }
+}
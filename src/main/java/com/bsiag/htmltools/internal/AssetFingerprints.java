@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Jeremie Bresson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jeremie Bresson - initial API and implementation
+ ******************************************************************************/
+package com.bsiag.htmltools.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashCode;
+import com.google.common.io.Files;
+
+/**
+ * Fingerprinted names of the assets: the hash of the content is part of the name (<code>css/asciidoctor.css</code> is
+ * published as <code>css/asciidoctor.3f9a1c2b.css</code>). The URL of an asset changes with its content, it can be
+ * cached forever.
+ * <p>
+ * The logical name to fingerprinted name mapping of a publish run is saved as JSON object in the output folder. The
+ * methods of this class are thread-safe.
+ */
+public class AssetFingerprints {
+  public static final String FILE_NAME = "asset-manifest.json";
+  static final int HASH_LENGTH = 8;
+
+  private static final Pattern FINGERPRINTED_NAME_PATTERN = Pattern.compile("(.+)\\.[0-9a-f]{" + HASH_LENGTH + "}(\\.[^./]+)?");
+
+  private final Map<String, String> names = new TreeMap<>();
+
+  /**
+   * @return the path with the fingerprint inserted before the extension of the file name (or appended if there is no
+   *         extension).
+   */
+  public static String fingerprint(String path, HashCode hash) {
+    String fingerprint = hash.toString().substring(0, HASH_LENGTH);
+    int slash = path.lastIndexOf('/');
+    int dot = path.lastIndexOf('.');
+    if (dot <= slash + 1) {
+      return path + "." + fingerprint;
+    }
+    return path.substring(0, dot) + "." + fingerprint + path.substring(dot);
+  }
+
+  /**
+   * @return the path without fingerprint (inverse of {@link #fingerprint(String, HashCode)}).
+   */
+  public static String logicalPath(String path) {
+    int slash = path.lastIndexOf('/');
+    Matcher matcher = FINGERPRINTED_NAME_PATTERN.matcher(path.substring(slash + 1));
+    if (!matcher.matches()) {
+      return path;
+    }
+    return path.substring(0, slash + 1) + matcher.group(1) + (matcher.group(2) == null ? "" : matcher.group(2));
+  }
+
+  /**
+   * Records the fingerprinted path of an asset. When different contents are published with the same logical path, the
+   * smallest fingerprinted path is kept (the result does not depend on the order of the pages).
+   */
+  public synchronized void put(String logicalPath, String fingerprintedPath) {
+    String previous = names.get(logicalPath);
+    if (previous == null || fingerprintedPath.compareTo(previous) < 0) {
+      names.put(logicalPath, fingerprintedPath);
+    }
+  }
+
+  /**
+   * @return the fingerprinted path or null if the logical path is not known.
+   */
+  public synchronized String get(String logicalPath) {
+    return names.get(logicalPath);
+  }
+
+  public synchronized int size() {
+    return names.size();
+  }
+
+  /**
+   * @return the mapping as JSON object, sorted by logical path.
+   */
+  public synchronized String toJson() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("{");
+    String separator = "\n";
+    for (Map.Entry<String, String> e : names.entrySet()) {
+      sb.append(separator).append("  \"").append(PublishStatistics.escapeJson(e.getKey())).append("\": \"").append(PublishStatistics.escapeJson(e.getValue())).append("\"");
+      separator = ",\n";
+    }
+    sb.append(separator.equals("\n") ? "}\n" : "\n}\n");
+    return sb.toString();
+  }
+
+  /**
+   * Writes the mapping in the {@link #FILE_NAME} file of the outFolder.
+   *
+   * @return the written file.
+   */
+  public File save(File outFolder) throws IOException {
+    File file = new File(outFolder, FILE_NAME);
+    Files.createParentDirs(file);
+    Files.write(toJson(), file, Charsets.UTF_8);
+    return file;
+  }
+}
@@ -0,0 +1,176 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Jeremie Bresson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jeremie Bresson - initial API and implementation
+ ******************************************************************************/
+package com.bsiag.htmltools.internal;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+/**
+ * Assets (images and CSS files) copied during one publish run. An asset is identified by its source file and the hash
+ * of its content: it is copied to a given target at most once, the other pages referencing it only get the rewritten
+ * src/href attribute. When different sources are copied to the same target, the source of the page with the highest
+ * index is kept: the result does not depend on the order of the calls. The methods of this class are thread-safe.
+ */
+public class AssetStore {
+  static final HashFunction HASH_FUNCTION = Hashing.sha1();
+
+  private final ConcurrentMap<File, Target> targets = new ConcurrentHashMap<>();
+  private final ConcurrentMap<File, HashCode> sourceHashes = new ConcurrentHashMap<>();
+  private final AtomicInteger copiedCount = new AtomicInteger();
+  private final AtomicInteger avoidedCount = new AtomicInteger();
+  private final CopyStrategy copyStrategy;
+
+  public AssetStore() {
+    this(CopyStrategy.COPY);
+  }
+
+  /**
+   * @param copyStrategy
+   *          how the assets are copied to their target.
+   */
+  public AssetStore(CopyStrategy copyStrategy) {
+    this.copyStrategy = copyStrategy;
+  }
+
+  /**
+   * Copy source to target, unless the same content was already copied to target during this run. The last call wins.
+   *
+   * @return true if the file was copied, false if the copy was avoided.
+   * @throws IOException
+   */
+  public boolean copy(File source, File target) throws IOException {
+    return copy(0, source, target);
+  }
+
+  /**
+   * Copy source to target for the page with the given index, unless the same content was already copied to target
+   * during this run or a page with a higher index already copied another content to target.
+   *
+   * @param pageIndex
+   *          position of the page referencing the asset in the list of published pages.
+   * @return true if the file was copied, false if the copy was avoided.
+   * @throws IOException
+   */
+  public boolean copy(int pageIndex, File source, File target) throws IOException {
+    Preconditions.checkArgument(!source.equals(target), "Source %s and destination %s must be different", source, target);
+    Target t = getTarget(target);
+    synchronized (t) {
+      if (t.source != null && (t.source.equals(source) || t.hash.equals(hash(source)))) {
+        t.pageIndex = Math.max(t.pageIndex, pageIndex);
+        avoidedCount.incrementAndGet();
+        return false;
+      }
+      if (t.source != null && t.pageIndex > pageIndex) {
+        //replaced by the page with the higher index in a sequential run:
+        avoidedCount.incrementAndGet();
+        return false;
+      }
+      HashCode hash;
+      if (copyStrategy == CopyStrategy.COPY) {
+        Files.createParentDirs(target);
+        java.nio.file.Files.deleteIfExists(target.toPath());
+        PrecompressedFiles.deleteSidecar(target);
+        hash = copyAndHash(source, target);
+        sourceHashes.put(source, hash);
+      }
+      else {
+        hash = hash(source);
+        copyStrategy.copy(source, target);
+      }
+      t.source = source;
+      t.hash = hash;
+      t.pageIndex = pageIndex;
+      copiedCount.incrementAndGet();
+      return true;
+    }
+  }
+
+  /**
+   * @return hash of the content of the source file (computed once per run).
+   */
+  public HashCode hash(File source) throws IOException {
+    HashCode hash = sourceHashes.get(source);
+    if (hash == null) {
+      hash = Files.hash(source, HASH_FUNCTION);
+      sourceHashes.put(source, hash);
+    }
+    return hash;
+  }
+
+  /**
+   * @return the strategy used to copy the assets.
+   */
+  public CopyStrategy getCopyStrategy() {
+    return copyStrategy;
+  }
+
+  /**
+   * @return number of files copied.
+   */
+  public int getCopiedCount() {
+    return copiedCount.get();
+  }
+
+  /**
+   * @return number of copies avoided because the same content was already copied to the target.
+   */
+  public int getAvoidedCount() {
+    return avoidedCount.get();
+  }
+
+  private Target getTarget(File target) {
+    Target t = targets.get(target);
+    if (t == null) {
+      Target newTarget = new Target();
+      t = targets.putIfAbsent(target, newTarget);
+      if (t == null) {
+        t = newTarget;
+      }
+    }
+    return t;
+  }
+
+  private static HashCode copyAndHash(File source, File target) throws IOException {
+    Hasher hasher = HASH_FUNCTION.newHasher();
+    byte[] buffer = new byte[8192];
+    try (InputStream in = new FileInputStream(source); OutputStream out = new FileOutputStream(target)) {
+      int len;
+      while ((len = in.read(buffer)) > 0) {
+        hasher.putBytes(buffer, 0, len);
+        out.write(buffer, 0, len);
+      }
+    }
+    return hasher.hash();
+  }
+
+  /**
+   * What was written to a target file during this run.
+   */
+  private static class Target {
+    private File source;
+    private HashCode hash;
+    private int pageIndex;
+  }
+}
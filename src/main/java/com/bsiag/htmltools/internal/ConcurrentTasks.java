@@ -0,0 +1,55 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Jeremie Bresson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jeremie Bresson - initial API and implementation
+ ******************************************************************************/
+package com.bsiag.htmltools.internal;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Waits for the tasks submitted to an {@link java.util.concurrent.ExecutorService}.
+ */
+final class ConcurrentTasks {
+
+  private ConcurrentTasks() {
+  }
+
+  /**
+   * Wait for the task and rethrow its failure as it was thrown by the task ({@link IOException},
+   * {@link RuntimeException} or {@link Error}). The other exceptions are wrapped in an {@link IOException}.
+   *
+   * @param task
+   *          what the task does, used in the messages (for example "extracting a zip entry").
+   * @return the result of the task.
+   */
+  static <T> T waitFor(Future<T> future, String task) throws IOException {
+    try {
+      return future.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while " + task, e);
+    }
+    catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IOException("Failure while " + task, cause);
+    }
+  }
+}
@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Jeremie Bresson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jeremie Bresson - initial API and implementation
+ ******************************************************************************/
+package com.bsiag.htmltools.internal;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.Files;
+
+/**
+ * How a file is copied to its target. An existing target file is always deleted first, so that a target hard linked
+ * during a previous run is never written through (this would modify the source file). The gzip sidecar of the target
+ * (see {@link PrecompressedFiles}) is deleted as well: it is stale.
+ */
+public enum CopyStrategy {
+  /**
+   * Copy with the java streams (previous behavior).
+   */
+  COPY {
+    @Override
+    protected void doCopy(File from, File to) throws IOException {
+      Files.copy(from, to);
+    }
+  },
+
+  /**
+   * Copy with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}: the operating system
+   * can copy the content without moving it through user-space buffers. The copy fails if the source gets shorter.
+   */
+  TRANSFER {
+    @Override
+    protected void doCopy(File from, File to) throws IOException {
+      try (FileChannel in = new FileInputStream(from).getChannel(); FileChannel out = new FileOutputStream(to).getChannel()) {
+        transfer(in, in.size(), out);
+      }
+    }
+  },
+
+  /**
+   * Create a hard link to the source file. When this is not possible (source and target on different file systems,
+   * file system without hard link support), the file is copied with {@link #TRANSFER}.
+   */
+  HARD_LINK {
+    @Override
+    protected void doCopy(File from, File to) throws IOException {
+      try {
+        java.nio.file.Files.createLink(to.toPath(), from.toPath());
+      }
+      catch (IOException | UnsupportedOperationException e) {
+        TRANSFER.doCopy(from, to);
+      }
+    }
+  };
+
+  /**
+   * Copy the content of the file from to the file to. The parent folders of to are created if necessary.
+   *
+   * @param from
+   *          source file
+   * @param to
+   *          target file (replaced if it already exists)
+   * @throws IOException
+   */
+  public void copy(File from, File to) throws IOException {
+    Preconditions.checkArgument(!from.equals(to), "Source %s and destination %s must be different", from, to);
+    Files.createParentDirs(to);
+    java.nio.file.Files.deleteIfExists(to.toPath());
+    PrecompressedFiles.deleteSidecar(to);
+    doCopy(from, to);
+  }
+
+  protected abstract void doCopy(File from, File to) throws IOException;
+
+  /**
+   * Transfer the first size bytes of in to out.
+   *
+   * @throws IOException
+   *           if in is shorter than size (the source was truncated during the copy).
+   */
+  static void transfer(FileChannel in, long size, WritableByteChannel out) throws IOException {
+    long position = 0;
+    while (position < size) {
+      long count = in.transferTo(position, size - position, out);
+      if (count <= 0) {
+        throw new IOException("The source was truncated during the copy (" + position + " of " + size + " bytes copied)");
+      }
+      position += count;
+    }
+  }
+}
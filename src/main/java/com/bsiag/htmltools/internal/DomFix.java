@@ -0,0 +1,29 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Jeremie Bresson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jeremie Bresson - initial API and implementation
+ ******************************************************************************/
+package com.bsiag.htmltools.internal;
+
+import java.io.IOException;
+
+import org.jsoup.nodes.Element;
+
+/**
+ * A modification applied on the elements of a document, see {@link DomRewriter}.
+ */
+public interface DomFix {
+
+  /**
+   * Called for each element having one of the tag names the fix was registered for.
+   *
+   * @param element
+   * @throws IOException
+   */
+  void apply(Element element) throws IOException;
+}
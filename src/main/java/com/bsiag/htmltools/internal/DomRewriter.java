@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Jeremie Bresson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jeremie Bresson - initial API and implementation
+ ******************************************************************************/
+package com.bsiag.htmltools.internal;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.select.NodeTraversor;
+import org.jsoup.select.NodeVisitor;
+
+/**
+ * Apply all the registered {@link DomFix} in one traversal of the document. For a given element, the fixes are applied
+ * in the order of their registration.
+ */
+public class DomRewriter {
+
+  private final Map<String, List<DomFix>> fixes = new HashMap<>();
+
+  /**
+   * @param fix
+   * @param tagNames
+   *          the fix is applied on the elements having one of those tag names (lower case).
+   * @return this rewriter
+   */
+  public DomRewriter register(DomFix fix, String... tagNames) {
+    for (String tagName : tagNames) {
+      List<DomFix> list = fixes.get(tagName);
+      if (list == null) {
+        list = new ArrayList<>();
+        fixes.put(tagName, list);
+      }
+      list.add(fix);
+    }
+    return this;
+  }
+
+  public void rewrite(Document doc) throws IOException {
+    if (fixes.isEmpty()) {
+      return;
+    }
+    try {
+      new NodeTraversor(new NodeVisitor() {
+
+        @Override
+        public void head(Node node, int depth) {
+          if (node instanceof Element) {
+            Element element = (Element) node;
+            List<DomFix> list = fixes.get(element.tagName());
+            if (list != null) {
+              for (DomFix fix : list) {
+                try {
+                  fix.apply(element);
+                }
+                catch (IOException e) {
+                  throw new FixFailedException(e);
+                }
+              }
+            }
+          }
+        }
+
+        @Override
+        public void tail(Node node, int depth) {
+        }
+      }).traverse(doc);
+    }
+    catch (FixFailedException e) {
+      throw (IOException) e.getCause();
+    }
+  }
+
+  /**
+   * Transports an {@link IOException} through the {@link NodeVisitor}.
+   */
+  private static class FixFailedException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    FixFailedException(IOException cause) {
+      super(cause);
+    }
+  }
+}
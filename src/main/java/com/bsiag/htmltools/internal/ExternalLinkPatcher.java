@@ -0,0 +1,143 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Jeremie Bresson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jeremie Bresson - initial API and implementation
+ ******************************************************************************/
+package com.bsiag.htmltools.internal;
+
+/**
+ * Adds <code>target="_blank"</code> to the external links of a page serialized by
+ * {@link PublishUtility#writeDocument(org.jsoup.nodes.Document, java.io.OutputStream, boolean)}. The result is the same
+ * as the serialization of the page published with {@link ParamPublishHtmlFiles#setFixExternalLinks(boolean)}: the
+ * target attribute is replaced in place or appended after the other attributes.
+ * <p>
+ * This works on the published content (pages skipped by an incremental run included) without parsing it again: the
+ * content of the comments and of the script and style elements is not modified.
+ */
+final class ExternalLinkPatcher {
+  private static final String TARGET = "target";
+  private static final String TARGET_BLANK = TARGET + "=\"_blank\"";
+
+  private final String html;
+  private final StringBuilder sb;
+  private int copied;
+
+  private ExternalLinkPatcher(String html) {
+    this.html = html;
+    this.sb = new StringBuilder(html.length() + 256);
+  }
+
+  /**
+   * @return true if the link is opened in a new window by the external links fix.
+   */
+  static boolean isExternal(String href) {
+    return href != null && (href.startsWith("http://") || href.startsWith("https://") || href.startsWith("ftp://"));
+  }
+
+  /**
+   * @return the page with the external links fixed.
+   */
+  static String patch(String html) {
+    ExternalLinkPatcher patcher = new ExternalLinkPatcher(html);
+    patcher.patchTags();
+    return patcher.sb.append(html, patcher.copied, html.length()).toString();
+  }
+
+  private void patchTags() {
+    int length = html.length();
+    int i = 0;
+    while (i < length) {
+      int lt = html.indexOf('<', i);
+      if (lt < 0 || lt + 1 >= length) {
+        return;
+      }
+      if (html.startsWith("<!--", lt)) {
+        int end = html.indexOf("-->", lt + 4);
+        i = end < 0 ? length : end + 3;
+      }
+      else if (Character.isLetter(html.charAt(lt + 1))) {
+        i = patchStartTag(lt);
+      }
+      else {
+        //end tag, doctype:
+        int end = html.indexOf('>', lt);
+        i = end < 0 ? length : end + 1;
+      }
+    }
+  }
+
+  /**
+   * @return the position after the start tag (after the content for the script and style elements).
+   */
+  private int patchStartTag(int lt) {
+    int length = html.length();
+    int i = lt + 1;
+    while (i < length && !isTagNameEnd(html.charAt(i))) {
+      i++;
+    }
+    String name = html.substring(lt + 1, i);
+    String href = null;
+    int targetStart = -1;
+    int targetEnd = -1;
+    while (i < length && html.charAt(i) != '>') {
+      char c = html.charAt(i);
+      if (Character.isWhitespace(c) || c == '/') {
+        i++;
+        continue;
+      }
+      int keyStart = i;
+      while (i < length && !isTagNameEnd(html.charAt(i)) && html.charAt(i) != '=') {
+        i++;
+      }
+      String key = html.substring(keyStart, i);
+      String value = "";
+      if (i < length && html.charAt(i) == '=') {
+        i++;
+        if (i < length && (html.charAt(i) == '"' || html.charAt(i) == '\'')) {
+          int end = html.indexOf(html.charAt(i), i + 1);
+          end = end < 0 ? length : end;
+          value = html.substring(i + 1, end);
+          i = Math.min(end + 1, length);
+        }
+        else {
+          int valueStart = i;
+          while (i < length && !Character.isWhitespace(html.charAt(i)) && html.charAt(i) != '>') {
+            i++;
+          }
+          value = html.substring(valueStart, i);
+        }
+      }
+      if ("href".equals(key)) {
+        href = value;
+      }
+      else if (TARGET.equals(key)) {
+        targetStart = keyStart;
+        targetEnd = i;
+      }
+    }
+    if ("a".equals(name) && isExternal(href) && i < length) {
+      if (targetStart >= 0) {
+        sb.append(html, copied, targetStart).append(TARGET_BLANK);
+        copied = targetEnd;
+      }
+      else {
+        sb.append(html, copied, i).append(' ').append(TARGET_BLANK);
+        copied = i;
+      }
+    }
+    if (("script".equals(name) || "style".equals(name)) && i < length) {
+      int end = html.indexOf("</" + name, i);
+      return end < 0 ? length : end;
+    }
+    return i + 1;
+  }
+
+  private static boolean isTagNameEnd(char c) {
+    return Character.isWhitespace(c) || c == '>' || c == '/';
+  }
+}
@@ -45,29 +45,41 @@ public class FileAction {
     return type == ActionType.COPY;
   }
 
+  public File getFile() {
+    return file;
+  }
+
+  public File getFromFile() {
+    return from;
+  }
+
   public File getParentFile() {
     return file.getParentFile();
   }
 
   public void doAction() throws IOException {
+    doAction(CopyStrategy.COPY);
+  }
+
+  public void doAction(CopyStrategy copyStrategy) throws IOException {
     switch (type) {
       case COPY:
         if ((file.exists() && file.isFile()) || from.isFile()) {
-          Files.createParentDirs(file);
-          Files.copy(from, file);
+          copyStrategy.copy(from, file);
         }
         else if ((file.exists() && file.isDirectory()) || from.isDirectory()) {
-          if (file.exists()) {
-            PublishUtility.deleteFilesRec(file);
-          }
+          //the existing files are synchronized, the unchanged ones are not copied again:
           Files.createParentDirs(file);
-          PublishUtility.copyRec(from, file);
+          PublishUtility.copyRec(from, file, copyStrategy);
         }
         break;
       case REMOVE:
         if (file.exists()) {
           if (file.isFile()) {
-            file.delete();
+            if (!file.delete() && file.exists()) {
+              throw new IOException("Could not delete file: " + file.getAbsolutePath());
+            }
+            PrecompressedFiles.deleteSidecar(file);
           }
           else {
             PublishUtility.deleteFilesRec(file);
@@ -0,0 +1,183 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Jeremie Bresson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jeremie Bresson - initial API and implementation
+ ******************************************************************************/
+package com.bsiag.htmltools.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Executes a list of {@link FileAction}s on a bounded pool of threads.
+ * <p>
+ * Two actions conflict when they work on the same file, or when the file of one action is inside the folder of the
+ * other action. Conflicting actions are put in the same group and are executed one after another, in the order of the
+ * list. The groups are independent and are executed concurrently. All the actions are executed even if some of them
+ * fail: the first failure is thrown at the end, the other ones are added to it as suppressed exceptions.
+ */
+public class FileActionExecutor {
+  private final int threads;
+  private final CopyStrategy copyStrategy;
+
+  public FileActionExecutor(int threads, CopyStrategy copyStrategy) {
+    this.threads = Math.max(1, threads);
+    this.copyStrategy = copyStrategy;
+  }
+
+  public void execute(List<FileAction> actions) throws IOException {
+    if (actions == null || actions.isEmpty()) {
+      return;
+    }
+    List<List<FileAction>> groups = computeGroups(actions);
+    List<Throwable> failures = new ArrayList<>();
+    if (threads == 1 || groups.size() == 1) {
+      for (List<FileAction> group : groups) {
+        executeGroup(group, failures);
+      }
+    }
+    else {
+      ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, groups.size()));
+      try {
+        List<Future<List<Throwable>>> futures = new ArrayList<>();
+        for (final List<FileAction> group : groups) {
+          futures.add(executor.submit(new Callable<List<Throwable>>() {
+            @Override
+            public List<Throwable> call() {
+              List<Throwable> groupFailures = new ArrayList<>();
+              executeGroup(group, groupFailures);
+              return groupFailures;
+            }
+          }));
+        }
+        for (Future<List<Throwable>> future : futures) {
+          failures.addAll(ConcurrentTasks.waitFor(future, "executing the file actions"));
+        }
+      }
+      finally {
+        executor.shutdownNow();
+      }
+    }
+    throwFailures(failures);
+  }
+
+  /**
+   * Executes the actions of a group in order. When an action fails, the following actions of the group are still
+   * executed (they do not work on the same file, they are only nested in the same folder).
+   */
+  private void executeGroup(List<FileAction> group, List<Throwable> failures) {
+    for (FileAction action : group) {
+      try {
+        action.doAction(copyStrategy);
+      }
+      catch (IOException | RuntimeException e) {
+        failures.add(new IOException("Could not execute " + action, e));
+      }
+    }
+  }
+
+  /**
+   * @return the groups of conflicting actions, in the order of their first action. In each group the actions keep the
+   *         order of the list.
+   */
+  static List<List<FileAction>> computeGroups(List<FileAction> actions) {
+    int[] parents = new int[actions.size()];
+    Map<File, Integer> actionFiles = new HashMap<>();
+    //for each folder containing the file of an action, the actions found below it:
+    Map<File, List<Integer>> nestedActions = new HashMap<>();
+    for (int i = 0; i < actions.size(); i++) {
+      parents[i] = i;
+      File file = actions.get(i).getFile().getAbsoluteFile();
+
+      Integer sameFile = actionFiles.put(file, i);
+      if (sameFile != null) {
+        union(parents, sameFile, i);
+      }
+      List<Integer> nested = nestedActions.get(file);
+      if (nested != null) {
+        for (Integer n : nested) {
+          union(parents, n, i);
+        }
+        //all the nested actions are now in the group of i:
+        nested.clear();
+        nested.add(i);
+      }
+      for (File folder = file.getParentFile(); folder != null; folder = folder.getParentFile()) {
+        Integer enclosing = actionFiles.get(folder);
+        if (enclosing != null) {
+          union(parents, enclosing, i);
+        }
+        List<Integer> list = nestedActions.get(folder);
+        if (list == null) {
+          list = new ArrayList<>();
+          nestedActions.put(folder, list);
+        }
+        list.add(i);
+      }
+    }
+
+    Map<Integer, List<FileAction>> groups = new LinkedHashMap<>();
+    for (int i = 0; i < actions.size(); i++) {
+      int root = find(parents, i);
+      List<FileAction> group = groups.get(root);
+      if (group == null) {
+        group = new ArrayList<>();
+        groups.put(root, group);
+      }
+      group.add(actions.get(i));
+    }
+    return new ArrayList<>(groups.values());
+  }
+
+  private static int find(int[] parents, int i) {
+    int root = i;
+    while (parents[root] != root) {
+      root = parents[root];
+    }
+    while (parents[i] != root) {
+      int next = parents[i];
+      parents[i] = root;
+      i = next;
+    }
+    return root;
+  }
+
+  private static void union(int[] parents, int a, int b) {
+    int rootA = find(parents, a);
+    int rootB = find(parents, b);
+    if (rootA != rootB) {
+      parents[Math.max(rootA, rootB)] = Math.min(rootA, rootB);
+    }
+  }
+
+  private static void throwFailures(List<Throwable> failures) throws IOException {
+    if (failures.isEmpty()) {
+      return;
+    }
+    IOException exception;
+    if (failures.size() == 1 && failures.get(0) instanceof IOException) {
+      exception = (IOException) failures.get(0);
+    }
+    else {
+      exception = new IOException(failures.size() + " file action(s) failed, first failure: " + failures.get(0).getMessage(), failures.get(0));
+      for (Throwable t : failures.subList(1, failures.size())) {
+        exception.addSuppressed(t);
+      }
+    }
+    throw exception;
+  }
+}
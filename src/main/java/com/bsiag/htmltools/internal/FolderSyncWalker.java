@@ -0,0 +1,223 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Jeremie Bresson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jeremie Bresson - initial API and implementation
+ ******************************************************************************/
+package com.bsiag.htmltools.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Computes the {@link FileAction}s needed to synchronize an output folder with an input folder (see
+ * {@link PublishUtility#computeActions(File, File, boolean)}).
+ * <p>
+ * Each folder is handled by a fork/join task: the input and the output folders are listed once (with
+ * {@link DirectoryStream}, the attributes of each entry are read once), the existence of the files and of their
+ * companion files (pdf, zip) is checked against these listings. The sub folders are walked concurrently. The names are
+ * sorted: the resulting list does not depend on the file system or on the number of threads.
+ */
+class FolderSyncWalker {
+  private static final String INDEX_HTML = "index.html";
+
+  private FolderSyncWalker() {
+  }
+
+  static List<FileAction> computeActions(File inputRootFolder, File outputRootFolder, boolean deleteNonExistingFolders, int threads, SyncIndex index) throws IOException {
+    ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+    try {
+      return pool.invoke(new FolderTask(inputRootFolder, outputRootFolder, deleteNonExistingFolders, index, new HtmlContentComparator()));
+    }
+    catch (RuntimeException e) {
+      //the pool might rethrow a copy of the exception, the IOException is the cause of the WalkFailedException:
+      for (Throwable t = e; t != null; t = t.getCause()) {
+        if (t instanceof WalkFailedException) {
+          throw (IOException) t.getCause();
+        }
+      }
+      throw e;
+    }
+    finally {
+      pool.shutdown();
+    }
+  }
+
+  static boolean isHtmlFileName(String name) {
+    return name.endsWith("html") && !name.equals(INDEX_HTML);
+  }
+
+  static String companionFileName(String name, String ext) {
+    return com.google.common.io.Files.getNameWithoutExtension(name) + "." + ext;
+  }
+
+  /**
+   * @return the entries of the folder (empty if the folder does not exist).
+   */
+  static Listing list(File folder) throws IOException {
+    Listing listing = new Listing();
+    Path path = folder.toPath();
+    if (!Files.isDirectory(path)) {
+      return listing;
+    }
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+      for (Path child : stream) {
+        String name = child.getFileName().toString();
+        if (isHtmlFileName(name)) {
+          listing.htmlFileNames.add(name);
+        }
+        BasicFileAttributes attributes;
+        try {
+          attributes = Files.readAttributes(child, BasicFileAttributes.class);
+        }
+        catch (IOException e) {
+          //broken link, or entry deleted in the meantime:
+          continue;
+        }
+        listing.existingNames.add(name);
+        if (isHtmlFileName(name)) {
+          listing.htmlFileAttributes.put(name, attributes);
+        }
+        if (attributes.isDirectory()) {
+          listing.directoryNames.add(name);
+        }
+      }
+    }
+    Collections.sort(listing.htmlFileNames);
+    Collections.sort(listing.directoryNames);
+    return listing;
+  }
+
+  /**
+   * Entries of a folder.
+   */
+  static class Listing {
+    private final List<String> htmlFileNames = new ArrayList<>();
+    private final List<String> directoryNames = new ArrayList<>();
+    private final Set<String> existingNames = new HashSet<>();
+    /**
+     * Size and modification time of the HTML files, checked against the {@link SyncIndex}.
+     */
+    private final Map<String, BasicFileAttributes> htmlFileAttributes = new HashMap<>();
+  }
+
+  private static class FolderTask extends RecursiveTask<List<FileAction>> {
+    private static final long serialVersionUID = 1L;
+
+    private final File inputFolder;
+    private final File outputFolder;
+    private final boolean deleteNonExistingFolders;
+    private final SyncIndex index;
+    private final HtmlContentComparator comparator;
+
+    FolderTask(File inputFolder, File outputFolder, boolean deleteNonExistingFolders, SyncIndex index, HtmlContentComparator comparator) {
+      this.inputFolder = inputFolder;
+      this.outputFolder = outputFolder;
+      this.deleteNonExistingFolders = deleteNonExistingFolders;
+      this.index = index;
+      this.comparator = comparator;
+    }
+
+    @Override
+    protected List<FileAction> compute() {
+      try {
+        return computeActions();
+      }
+      catch (IOException e) {
+        throw new WalkFailedException(e);
+      }
+    }
+
+    private List<FileAction> computeActions() throws IOException {
+      Listing input = list(inputFolder);
+      Listing output = list(outputFolder);
+
+      //the sub folders are walked while the files of this folder are compared:
+      List<FolderTask> subTasks = new ArrayList<>();
+      for (String name : input.directoryNames) {
+        FolderTask task = new FolderTask(new File(inputFolder, name), new File(outputFolder, name), deleteNonExistingFolders, index, comparator);
+        task.fork();
+        subTasks.add(task);
+      }
+
+      List<FileAction> result = new ArrayList<>();
+      for (String name : input.htmlFileNames) {
+        File inputFile = new File(inputFolder, name);
+        File outputFile = new File(outputFolder, name);
+        if (!output.existingNames.contains(name) || hasModifications(inputFile, outputFile, output.htmlFileAttributes.get(name))) {
+          addCopyActions(result, input, name);
+        }
+      }
+
+      for (String name : PublishUtility.elementsNotIn(output.htmlFileNames, input.htmlFileNames)) {
+        addRemoveActions(result, output, name);
+      }
+
+      for (FolderTask task : subTasks) {
+        result.addAll(task.join());
+      }
+
+      if (deleteNonExistingFolders) {
+        for (String name : PublishUtility.elementsNotIn(output.directoryNames, input.directoryNames)) {
+          result.add(FileAction.remove(new File(outputFolder, name)));
+        }
+      }
+      return result;
+    }
+
+    private boolean hasModifications(File inputFile, File outputFile, BasicFileAttributes outputAttributes) throws IOException {
+      if (index != null && outputAttributes != null) {
+        return index.hasModifications(inputFile, outputFile, outputAttributes.size(), outputAttributes.lastModifiedTime().toMillis());
+      }
+      return comparator.hasModifications(inputFile, outputFile);
+    }
+
+    private void addCopyActions(List<FileAction> list, Listing input, String name) {
+      list.add(FileAction.copy(new File(inputFolder, name), new File(outputFolder, name)));
+      for (String ext : new String[]{"pdf", "zip"}) {
+        String companion = companionFileName(name, ext);
+        if (input.existingNames.contains(companion)) {
+          list.add(FileAction.copy(new File(inputFolder, companion), new File(outputFolder, companion)));
+        }
+      }
+    }
+
+    private void addRemoveActions(List<FileAction> list, Listing output, String name) {
+      list.add(FileAction.remove(new File(outputFolder, name)));
+      for (String ext : new String[]{"pdf", "zip"}) {
+        String companion = companionFileName(name, ext);
+        if (output.existingNames.contains(companion)) {
+          list.add(FileAction.remove(new File(outputFolder, companion)));
+        }
+      }
+    }
+  }
+
+  /**
+   * Carries an {@link IOException} out of a fork/join task.
+   */
+  private static class WalkFailedException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    WalkFailedException(IOException cause) {
+      super(cause);
+    }
+  }
+}
@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Jeremie Bresson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jeremie Bresson - initial API and implementation
+ ******************************************************************************/
+package com.bsiag.htmltools.internal;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Compares HTML files line by line, ignoring the volatile lines (the "Last updated" line added by asciidoctor). The
+ * files are streamed and the comparison stops at the first difference.
+ * <p>
+ * When two files are equal, their normalized digest (hash of the lines where the volatile lines are replaced by a
+ * marker) is cached with the size and the modification time of the file. As long as a file is unchanged, the next
+ * comparisons involving it use the digest and do not read it again. The other file is then read completely to compute
+ * its digest: there is no early exit when one side is cached.
+ * <p>
+ * The cache lives as long as the comparator: use one comparator per run (a call of
+ * {@link PublishUtility#computeActions(File, File, boolean, int, SyncIndex)}, and the update of the {@link SyncIndex}
+ * of the same run). The digests are reused across runs by the {@link SyncIndex}. The methods of this class are
+ * thread-safe.
+ */
+public class HtmlContentComparator {
+  static final Pattern LAST_UPDATED_PATTERN = Pattern.compile("<br /> Last updated .+");
+  static final HashFunction DIGEST_FUNCTION = Hashing.murmur3_128();
+
+  private final ConcurrentMap<File, CachedDigest> digests = new ConcurrentHashMap<>();
+
+  /**
+   * @return true if the line is volatile: its content is ignored during the comparison.
+   */
+  public static boolean isVolatile(String line) {
+    return LAST_UPDATED_PATTERN.matcher(line.trim()).matches();
+  }
+
+  /**
+   * @return true if the files are different (ignoring the volatile lines). The lines are the same as with
+   *         {@link com.google.common.io.Files#readLines(File, java.nio.charset.Charset)}.
+   */
+  public boolean hasModifications(File file1, File file2) throws IOException {
+    CachedDigest cached1 = getCachedDigest(file1);
+    CachedDigest cached2 = getCachedDigest(file2);
+    if (cached1 != null || cached2 != null) {
+      //only the file without digest is read (completely):
+      return !digest(file1).equals(digest(file2));
+    }
+
+    long size1 = file1.length();
+    long modified1 = file1.lastModified();
+    long size2 = file2.length();
+    long modified2 = file2.lastModified();
+    Hasher hasher1 = DIGEST_FUNCTION.newHasher();
+    Hasher hasher2 = DIGEST_FUNCTION.newHasher();
+    try (BufferedReader reader1 = open(file1); BufferedReader reader2 = open(file2)) {
+      String line1 = reader1.readLine();
+      String line2 = reader2.readLine();
+      while (line1 != null && line2 != null) {
+        boolean volatile1 = isVolatile(line1);
+        boolean volatile2 = isVolatile(line2);
+        if (volatile1 != volatile2 || (!volatile1 && !line1.equals(line2))) {
+          return true;
+        }
+        putLine(hasher1, line1, volatile1);
+        putLine(hasher2, line2, volatile2);
+        line1 = reader1.readLine();
+        line2 = reader2.readLine();
+      }
+      if (line1 != null || line2 != null) {
+        return true;
+      }
+    }
+    putDigest(file1, size1, modified1, hasher1.hash());
+    putDigest(file2, size2, modified2, hasher2.hash());
+    return false;
+  }
+
+  /**
+   * @return the normalized digest of the file (from the cache, if the file is unchanged).
+   */
+  public HashCode digest(File file) throws IOException {
+    CachedDigest cached = getCachedDigest(file);
+    if (cached != null) {
+      return cached.digest;
+    }
+    long size = file.length();
+    long modified = file.lastModified();
+    Hasher hasher = DIGEST_FUNCTION.newHasher();
+    try (BufferedReader reader = open(file)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        putLine(hasher, line, isVolatile(line));
+      }
+    }
+    HashCode digest = hasher.hash();
+    putDigest(file, size, modified, digest);
+    return digest;
+  }
+
+  private static BufferedReader open(File file) throws IOException {
+    return new BufferedReader(new InputStreamReader(new FileInputStream(file), Charsets.UTF_8), 64 * 1024);
+  }
+
+  private static void putLine(Hasher hasher, String line, boolean isVolatile) {
+    if (isVolatile) {
+      hasher.putByte((byte) 1);
+    }
+    else {
+      hasher.putByte((byte) 0).putInt(line.length()).putUnencodedChars(line);
+    }
+  }
+
+  private CachedDigest getCachedDigest(File file) {
+    CachedDigest cached = digests.get(file.getAbsoluteFile());
+    if (cached != null && cached.size == file.length() && cached.modified == file.lastModified()) {
+      return cached;
+    }
+    return null;
+  }
+
+  private void putDigest(File file, long size, long modified, HashCode digest) {
+    //the file was possibly modified during the comparison:
+    if (size == file.length() && modified == file.lastModified()) {
+      digests.put(file.getAbsoluteFile(), new CachedDigest(size, modified, digest));
+    }
+  }
+
+  private static class CachedDigest {
+    private final long size;
+    private final long modified;
+    private final HashCode digest;
+
+    CachedDigest(long size, long modified, HashCode digest) {
+      this.size = size;
+      this.modified = modified;
+      this.digest = digest;
+    }
+  }
+}
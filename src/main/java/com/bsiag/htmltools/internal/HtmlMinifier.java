@@ -0,0 +1,349 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Jeremie Bresson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jeremie Bresson - initial API and implementation
+ ******************************************************************************/
+package com.bsiag.htmltools.internal;
+
+import java.io.IOException;
+import java.nio.charset.CharsetEncoder;
+import java.util.ArrayList;
+import java.util.Set;
+
+import org.jsoup.nodes.Attribute;
+import org.jsoup.nodes.Comment;
+import org.jsoup.nodes.DataNode;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Minification of the published pages, in two steps:
+ * <ul>
+ * <li>{@link #minify(Document)} modifies the document: the whitespaces are collapsed (except in pre, code, textarea,
+ * script and style elements), the comments are removed (except the conditional comments) and the boolean attributes are
+ * shortened.</li>
+ * <li>{@link #write(Document, Appendable)} serializes the document without the optional end tags (li, p, td, ...).</li>
+ * </ul>
+ */
+public final class HtmlMinifier {
+
+  /**
+   * Elements in which the whitespaces are significant: their content is kept as it is.
+   */
+  private static final Set<String> PRESERVE_WHITESPACES = ImmutableSet.of("pre", "code", "textarea", "script", "style", "svg", "math");
+
+  /**
+   * Elements starting and ending a line: the whitespaces before and after them are not rendered.
+   */
+  private static final Set<String> BLOCKS = ImmutableSet.of("html", "head", "body", "title", "meta", "link", "base",
+      "address", "article", "aside", "blockquote", "br", "caption", "col", "colgroup", "dd", "details", "dialog", "div", "dl", "dt",
+      "fieldset", "figcaption", "figure", "footer", "form", "h1", "h2", "h3", "h4", "h5", "h6", "header", "hgroup", "hr", "li",
+      "main", "menu", "nav", "ol", "p", "pre", "section", "summary", "table", "tbody", "td", "tfoot", "th", "thead", "tr", "ul");
+
+  /**
+   * Elements that are not rendered: the whitespaces around them are handled as if they were not there.
+   */
+  private static final Set<String> INVISIBLES = ImmutableSet.of("script", "style", "template");
+
+  private static final Set<String> BOOLEAN_ATTRIBUTES = ImmutableSet.of("allowfullscreen", "async", "autofocus", "autoplay",
+      "checked", "compact", "controls", "declare", "default", "defer", "disabled", "formnovalidate", "hidden", "inert", "ismap",
+      "itemscope", "loop", "multiple", "muted", "nohref", "noresize", "noshade", "novalidate", "nowrap", "open", "readonly",
+      "required", "reversed", "seamless", "selected", "sortable", "truespeed", "typemustmatch");
+
+  /**
+   * Elements closing a p element (its end tag can be omitted when it is followed by one of them).
+   */
+  private static final Set<String> P_CLOSERS = ImmutableSet.of("address", "article", "aside", "blockquote", "details", "div",
+      "dl", "fieldset", "figcaption", "figure", "footer", "form", "h1", "h2", "h3", "h4", "h5", "h6", "header", "hgroup", "hr",
+      "main", "menu", "nav", "ol", "p", "pre", "section", "table", "ul");
+
+  /**
+   * Parents in which the end tag of a p element must be kept when the p element is the last child.
+   */
+  private static final Set<String> P_KEEP_IN = ImmutableSet.of("a", "audio", "del", "ins", "map", "noscript", "video");
+
+  private long savedBytes;
+  private boolean lastSpace;
+  private TextNode lastText;
+
+  private HtmlMinifier() {
+  }
+
+  /**
+   * Collapses the whitespaces, removes the comments and shortens the boolean attributes of the document. The pretty
+   * print of the document is turned off. The document should then be serialized with
+   * {@link #write(Document, Appendable)}.
+   *
+   * @return the number of bytes saved compared to the serialization of the document without pretty print (including
+   *         the optional end tags omitted by {@link #write(Document, Appendable)}).
+   */
+  public static long minify(Document doc) {
+    doc.outputSettings().prettyPrint(false);
+    HtmlMinifier minifier = new HtmlMinifier();
+    minifier.boundary();
+    minifier.minifyChildren(doc);
+    minifier.boundary();
+    //the siblings are known once the whitespaces are removed:
+    for (Element element : doc.getAllElements()) {
+      if (canOmitEndTag(element)) {
+        minifier.savedBytes += element.tagName().length() + 3;
+      }
+    }
+    return minifier.savedBytes;
+  }
+
+  private void minifyChildren(Node parent) {
+    for (Node node : new ArrayList<>(parent.childNodes())) {
+      if (node instanceof TextNode) {
+        minifyText((TextNode) node);
+      }
+      else if (node instanceof Comment) {
+        Comment comment = (Comment) node;
+        if (!comment.getData().startsWith("[if")) {
+          savedBytes += utf8Length("<!--" + comment.getData() + "-->");
+          comment.remove();
+        }
+      }
+      else if (node instanceof Element) {
+        minifyElement((Element) node);
+      }
+    }
+  }
+
+  private void minifyElement(Element element) {
+    String name = element.tagName();
+    for (Attribute attribute : element.attributes().asList()) {
+      String value = attribute.getValue();
+      if (!value.isEmpty() && value.equalsIgnoreCase(attribute.getKey()) && BOOLEAN_ATTRIBUTES.contains(attribute.getKey())) {
+        //not counted in savedBytes, jsoup already shortens most of them:
+        element.attr(attribute.getKey(), "");
+      }
+    }
+    if (INVISIBLES.contains(name)) {
+      return;
+    }
+    boolean block = BLOCKS.contains(name);
+    if (block) {
+      boundary();
+    }
+    if (PRESERVE_WHITESPACES.contains(name)) {
+      lastSpace = false;
+      lastText = null;
+    }
+    else {
+      minifyChildren(element);
+      if (element.tag().isEmpty()) {
+        //content like an image:
+        lastSpace = false;
+        lastText = null;
+      }
+    }
+    if (block) {
+      boundary();
+    }
+  }
+
+  private void minifyText(TextNode text) {
+    String value = text.getWholeText();
+    StringBuilder sb = new StringBuilder(value.length());
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (isWhitespace(c)) {
+        if (!lastSpace) {
+          sb.append(' ');
+          lastSpace = true;
+        }
+      }
+      else {
+        sb.append(c);
+        lastSpace = false;
+      }
+    }
+    savedBytes += value.length() - sb.length();
+    if (sb.length() == 0) {
+      text.remove();
+    }
+    else {
+      text.text(sb.toString());
+      lastText = text;
+    }
+  }
+
+  /**
+   * Start or end of a block: the leading whitespace of the next text and the trailing whitespace of the previous text
+   * are not rendered.
+   */
+  private void boundary() {
+    if (lastText != null) {
+      String value = lastText.getWholeText();
+      if (value.endsWith(" ")) {
+        savedBytes++;
+        if (value.length() == 1) {
+          lastText.remove();
+        }
+        else {
+          lastText.text(value.substring(0, value.length() - 1));
+        }
+      }
+    }
+    lastText = null;
+    lastSpace = true;
+  }
+
+  private static boolean isWhitespace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+  }
+
+  private static long utf8Length(String value) {
+    return value.getBytes(Charsets.UTF_8).length;
+  }
+
+  /**
+   * @return true if the end tag of the element can be omitted (see "Optional tags" in the HTML specification).
+   */
+  static boolean canOmitEndTag(Element element) {
+    Node next = element.nextSibling();
+    String nextName = next instanceof Element ? ((Element) next).tagName() : null;
+    switch (element.tagName()) {
+      case "html":
+      case "body":
+        return !(next instanceof Comment);
+      case "head":
+        return next == null || next instanceof Element;
+      case "li":
+        return next == null || "li".equals(nextName);
+      case "dt":
+        return "dt".equals(nextName) || "dd".equals(nextName);
+      case "dd":
+        return next == null || "dt".equals(nextName) || "dd".equals(nextName);
+      case "p":
+        if (next == null) {
+          Node parent = element.parentNode();
+          return parent instanceof Element && !P_KEEP_IN.contains(((Element) parent).tagName());
+        }
+        return P_CLOSERS.contains(nextName);
+      case "td":
+      case "th":
+        return next == null || "td".equals(nextName) || "th".equals(nextName);
+      case "tr":
+        return next == null || "tr".equals(nextName);
+      case "thead":
+        return "tbody".equals(nextName) || "tfoot".equals(nextName);
+      case "tbody":
+        return next == null || "tbody".equals(nextName) || "tfoot".equals(nextName);
+      case "tfoot":
+        return next == null;
+      case "option":
+        return next == null || "option".equals(nextName) || "optgroup".equals(nextName);
+      case "optgroup":
+        return next == null || "optgroup".equals(nextName);
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Serializes the document (without pretty print, without the optional end tags). The characters that can not be
+   * encoded with the charset of the document are written as numeric character references.
+   */
+  public static void write(Document doc, Appendable out) throws IOException {
+    CharsetEncoder encoder = doc.outputSettings().charset().newEncoder();
+    for (Node node : doc.childNodes()) {
+      write(node, out, encoder);
+    }
+  }
+
+  private static void write(Node node, Appendable out, CharsetEncoder encoder) throws IOException {
+    if (node instanceof TextNode) {
+      escape(((TextNode) node).getWholeText(), out, encoder, false);
+    }
+    else if (node instanceof DataNode) {
+      out.append(((DataNode) node).getWholeData());
+    }
+    else if (node instanceof Comment) {
+      out.append("<!--").append(((Comment) node).getData()).append("-->");
+    }
+    else if (node instanceof Element) {
+      Element element = (Element) node;
+      out.append('<').append(element.tagName());
+      for (Attribute attribute : element.attributes()) {
+        out.append(' ').append(attribute.getKey());
+        String value = attribute.getValue();
+        if (!value.isEmpty() || !BOOLEAN_ATTRIBUTES.contains(attribute.getKey())) {
+          out.append("=\"");
+          escape(value, out, encoder, true);
+          out.append('"');
+        }
+      }
+      if (element.tag().isEmpty()) {
+        out.append('>');
+        return;
+      }
+      if (element.childNodes().isEmpty() && element.tag().isSelfClosing()) {
+        out.append(" />");
+        return;
+      }
+      out.append('>');
+      for (Node child : element.childNodes()) {
+        write(child, out, encoder);
+      }
+      if (!canOmitEndTag(element)) {
+        out.append("</").append(element.tagName()).append('>');
+      }
+    }
+    else {
+      //doctype, xml declaration:
+      out.append(node.outerHtml());
+    }
+  }
+
+  private static void escape(String value, Appendable out, CharsetEncoder encoder, boolean inAttribute) throws IOException {
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '&':
+          out.append("&amp;");
+          break;
+        case '\u00a0':
+          out.append("&nbsp;");
+          break;
+        case '<':
+          out.append(inAttribute ? "<" : "&lt;");
+          break;
+        case '>':
+          out.append(inAttribute ? ">" : "&gt;");
+          break;
+        case '"':
+          out.append(inAttribute ? "&quot;" : "\"");
+          break;
+        default:
+          if (c < 0x80 || encoder.canEncode(c)) {
+            out.append(c);
+          }
+          else if (Character.isHighSurrogate(c) && i + 1 < value.length()) {
+            String pair = value.substring(i, i + 2);
+            if (encoder.canEncode(pair)) {
+              out.append(pair);
+            }
+            else {
+              out.append("&#x").append(Integer.toHexString(pair.codePointAt(0))).append(';');
+            }
+            i++;
+          }
+          else {
+            out.append("&#x").append(Integer.toHexString(c)).append(';');
+          }
+      }
+    }
+  }
+}
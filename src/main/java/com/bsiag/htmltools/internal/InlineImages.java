@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Jeremie Bresson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jeremie Bresson - initial API and implementation
+ ******************************************************************************/
+package com.bsiag.htmltools.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.Files;
+import com.google.common.io.Resources;
+
+/**
+ * Small images embedded in the published pages as data URIs (<code>data:image/gif;base64,...</code>) instead of being
+ * copied: each of them saves a request. The encoded form of an image is computed once per publish run, not once per
+ * page. The methods of this class are thread-safe.
+ */
+public class InlineImages {
+  public static final String DATA_URI_PREFIX = "data:";
+
+  private static final Map<String, String> MIME_TYPES = ImmutableMap.<String, String> builder()
+      .put("gif", "image/gif")
+      .put("png", "image/png")
+      .put("jpg", "image/jpeg")
+      .put("jpeg", "image/jpeg")
+      .put("svg", "image/svg+xml")
+      .put("webp", "image/webp")
+      .build();
+
+  /**
+   * Value cached for the images that are not inlined.
+   */
+  private static final String NOT_INLINED = "";
+
+  private final long maxSize;
+  private final ConcurrentMap<String, String> dataUris = new ConcurrentHashMap<>();
+
+  /**
+   * @param maxSize
+   *          size in bytes up to which an image is inlined.
+   */
+  public InlineImages(long maxSize) {
+    this.maxSize = maxSize;
+  }
+
+  public long getMaxSize() {
+    return maxSize;
+  }
+
+  /**
+   * @return the MIME type of the image or null if the type is unknown (the image is not inlined).
+   */
+  static String mimeType(String name) {
+    return MIME_TYPES.get(Files.getFileExtension(name).toLowerCase(Locale.ENGLISH));
+  }
+
+  static String encode(String mimeType, byte[] content) {
+    return DATA_URI_PREFIX + mimeType + ";base64," + BaseEncoding.base64().encode(content);
+  }
+
+  /**
+   * @return the data URI of the image or null if the image is not inlined (not a file, too big or unknown type).
+   */
+  public String dataUri(File file) throws IOException {
+    if (!file.isFile() || file.length() > maxSize || mimeType(file.getName()) == null) {
+      return null;
+    }
+    return dataUri(file.getName(), file.toURI().toURL());
+  }
+
+  /**
+   * @return the data URI of the image (a file or a classpath resource) or null if the image is not inlined.
+   */
+  public String dataUri(String name, URL url) throws IOException {
+    String key = url.toExternalForm();
+    String dataUri = dataUris.get(key);
+    if (dataUri == null) {
+      String mimeType = mimeType(name);
+      byte[] content = mimeType == null ? null : Resources.toByteArray(url);
+      dataUri = content == null || content.length > maxSize ? NOT_INLINED : encode(mimeType, content);
+      dataUris.putIfAbsent(key, dataUri);
+    }
+    return dataUri.isEmpty() ? null : dataUri;
+  }
+}
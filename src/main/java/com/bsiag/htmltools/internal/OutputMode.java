@@ -0,0 +1,48 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Jeremie Bresson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jeremie Bresson - initial API and implementation
+ ******************************************************************************/
+package com.bsiag.htmltools.internal;
+
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Entities.EscapeMode;
+
+import com.google.common.base.Charsets;
+
+/**
+ * How the published pages are serialized. The files are always encoded as UTF-8.
+ */
+public enum OutputMode {
+  /**
+   * Pretty printed, the non-ASCII characters are escaped as numeric entities (previous behavior).
+   */
+  PRETTY_ASCII {
+    @Override
+    void apply(Document doc) {
+      doc.outputSettings().charset("ASCII");
+    }
+  },
+
+  /**
+   * Not pretty printed, only the markup characters (&amp;, &lt;, &gt;, &quot; and the no-break space) are escaped. The
+   * meta charset element of the page is set to UTF-8. The whitespaces of the page are kept as they are.
+   */
+  COMPACT_UTF8 {
+    @Override
+    void apply(Document doc) {
+      doc.charset(Charsets.UTF_8);
+      doc.outputSettings().escapeMode(EscapeMode.xhtml).prettyPrint(false);
+    }
+  };
+
+  /**
+   * Set the output settings of the document.
+   */
+  abstract void apply(Document doc);
+}
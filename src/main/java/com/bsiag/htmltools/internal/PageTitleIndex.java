@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Jeremie Bresson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jeremie Bresson - initial API and implementation
+ ******************************************************************************/
+package com.bsiag.htmltools.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Title (first header) and href of each page of a pages list. The index is built once per publish run, each page is
+ * read only once, instead of once per neighbour page.
+ */
+public class PageTitleIndex {
+
+  private final List<File> pages;
+  private final List<String> titles;
+  private final Map<File, Integer> positions;
+
+  private PageTitleIndex(List<File> pages, List<String> titles) {
+    this.pages = pages;
+    this.titles = titles;
+    this.positions = new HashMap<>();
+    for (int i = 0; i < pages.size(); i++) {
+      if (!positions.containsKey(pages.get(i))) {
+        positions.put(pages.get(i), i);
+      }
+    }
+  }
+
+  /**
+   * Read each page and find its first header (see {@link PublishUtility#readAndFindFirstHeader(File)}).
+   *
+   * @param pages
+   *          ordered list of pages
+   * @return the index
+   * @throws IOException
+   */
+  public static PageTitleIndex build(List<File> pages) throws IOException {
+    return build(pages, null);
+  }
+
+  /**
+   * @param charsetName
+   *          charset of the pages, if null it is detected from the BOM or the meta tag of each page.
+   * @see #build(List)
+   */
+  public static PageTitleIndex build(List<File> pages, String charsetName) throws IOException {
+    List<String> titles = new ArrayList<>(pages.size());
+    for (File page : pages) {
+      titles.add(PublishUtility.readAndFindFirstHeader(page, charsetName));
+    }
+    return new PageTitleIndex(Collections.unmodifiableList(new ArrayList<>(pages)), Collections.unmodifiableList(titles));
+  }
+
+  public int size() {
+    return pages.size();
+  }
+
+  /**
+   * @param page
+   * @return position of the page in the list or -1 if the page is not part of the list.
+   */
+  public int indexOf(File page) {
+    Integer position = positions.get(page);
+    return position == null ? -1 : position.intValue();
+  }
+
+  public File getPage(int index) {
+    return pages.get(index);
+  }
+
+  /**
+   * @return title of the page or null if no header was found.
+   */
+  public String getTitle(int index) {
+    return titles.get(index);
+  }
+
+  /**
+   * @return the href to use in a link to the page.
+   */
+  public String getHref(int index) {
+    return pages.get(index).getName();
+  }
+
+  /**
+   * @return the root item (first page of the list) or null if the list is empty.
+   */
+  public RootItem createRootItem() {
+    if (pages.isEmpty()) {
+      return null;
+    }
+    return new RootItem(getTitle(0), getHref(0));
+  }
+}
@@ -0,0 +1,590 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Jeremie Bresson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jeremie Bresson - initial API and implementation
+ ******************************************************************************/
+package com.bsiag.htmltools.internal;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+import com.google.common.io.Files;
+
+/**
+ * Zip writer compressing the entries on several threads.
+ * <p>
+ * The content of each entry is split in chunks of {@link #CHUNK_SIZE} bytes. Each chunk is deflated by a task of a
+ * thread pool, with the end of the previous chunk as dictionary, and is terminated by a sync flush: the compressed
+ * chunks are concatenated to a single valid deflate stream (same approach as pigz). Small entries are compressed
+ * concurrently with each other, large entries are compressed concurrently chunk by chunk.
+ * <p>
+ * The compressed chunks are written in the order of submission: the archive only depends on the entries, the level and
+ * the order of the calls, not on the number of threads. The number of chunks in flight is bounded, the memory usage does
+ * not depend on the size of the entries. The sizes and the CRC are written in a data descriptor after each entry (like
+ * {@link java.util.zip.ZipOutputStream}), ZIP64 records are used when the archive needs them.
+ * <p>
+ * Entries that are already compressed (see {@link ZipCompressionPolicy}) are written without compression (STORED):
+ * their CRC is computed in a first pass, and their content is copied in a second pass.
+ * <p>
+ * This class is not thread-safe: the entries are added from one thread (or with external synchronization).
+ */
+public class ParallelZipWriter implements Closeable {
+  static final int CHUNK_SIZE = 128 * 1024;
+  private static final int DICTIONARY_SIZE = 32 * 1024;
+
+  private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+  private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+  private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+  private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+  private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+  private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+  private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+  private static final int END_SIGNATURE = 0x06054b50;
+  private static final int VERSION = 20;
+  private static final int VERSION_ZIP64 = 45;
+  /** UTF-8 names (bit 11). */
+  private static final int FLAG_UTF8 = 0x0800;
+  /** Sizes and CRC in the data descriptor (bit 3). */
+  private static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+  private static final int METHOD_STORED = 0;
+  private static final int METHOD_DEFLATED = 8;
+
+  private final CountingOutputStream out;
+  private final int level;
+  private final ZipCompressionPolicy policy;
+  private final ExecutorService executor;
+  private final int maxChunksInFlight;
+  private final long time = System.currentTimeMillis();
+  private final Deque<Object> queue = new ArrayDeque<>();
+  private final List<Entry> entries = new ArrayList<>();
+  private int chunksInFlight;
+  private boolean closed;
+
+  /**
+   * @param out
+   *          the stream where the archive is written (closed with the writer).
+   * @param level
+   *          compression level (0-9), or {@link Deflater#DEFAULT_COMPRESSION}.
+   * @param threads
+   *          number of threads used for the compression.
+   */
+  public ParallelZipWriter(OutputStream out, int level, int threads) {
+    this(out, level, threads, ZipCompressionPolicy.defaultPolicy());
+  }
+
+  /**
+   * @param out
+   *          the stream where the archive is written (closed with the writer).
+   * @param level
+   *          compression level (0-9), or {@link Deflater#DEFAULT_COMPRESSION}. With 0 all entries are stored.
+   * @param threads
+   *          number of threads used for the compression.
+   * @param policy
+   *          decides which entries are stored without compression.
+   */
+  public ParallelZipWriter(OutputStream out, int level, int threads, ZipCompressionPolicy policy) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("threads should be greater than 0, was: " + threads);
+    }
+    if (level != Deflater.DEFAULT_COMPRESSION && (level < 0 || level > 9)) {
+      throw new IllegalArgumentException("level should be between 0 and 9, was: " + level);
+    }
+    this.out = new CountingOutputStream(new BufferedOutputStream(out, 64 * 1024));
+    this.level = level;
+    this.policy = policy;
+    this.executor = Executors.newFixedThreadPool(threads);
+    this.maxChunksInFlight = threads * 4;
+  }
+
+  /**
+   * Add an entry with the content of file (the modification time of the file is used).
+   */
+  public void putFile(String name, File file) throws IOException {
+    putEntry(name, Files.asByteSource(file), file.lastModified());
+  }
+
+  /**
+   * Add an entry with the given content.
+   */
+  public void putEntry(String name, byte[] content) throws IOException {
+    putEntry(name, ByteSource.wrap(content), time);
+  }
+
+  /**
+   * Add an entry with the content of source. The source is read once, twice for a stored entry larger than one chunk.
+   *
+   * @param time
+   *          modification time of the entry.
+   */
+  public void putEntry(String name, ByteSource source, long time) throws IOException {
+    if (closed) {
+      throw new IllegalStateException("The writer is closed");
+    }
+    Entry entry = new Entry(name, time);
+    try (InputStream in = source.openStream()) {
+      byte[] chunk = readChunk(in);
+      if (level == 0 || policy.isStored(name, chunk, chunk.length)) {
+        putStoredEntry(entry, source, in, chunk);
+      }
+      else {
+        putDeflatedEntry(entry, in, chunk);
+      }
+    }
+  }
+
+  private void putStoredEntry(Entry entry, ByteSource source, InputStream in, byte[] firstChunk) throws IOException {
+    entry.method = METHOD_STORED;
+    entry.flags = FLAG_UTF8;
+    CRC32 crc = new CRC32();
+    crc.update(firstChunk);
+    entry.size = firstChunk.length;
+    if (firstChunk.length == CHUNK_SIZE) {
+      //first pass: the CRC is written before the content
+      byte[] buffer = new byte[CHUNK_SIZE];
+      int len;
+      while ((len = in.read(buffer)) > 0) {
+        crc.update(buffer, 0, len);
+        entry.size += len;
+      }
+    }
+    entry.crc = crc.getValue();
+    entry.compressedSize = entry.size;
+    queue.add(entry);
+
+    if (firstChunk.length < CHUNK_SIZE) {
+      addStoredChunk(firstChunk);
+    }
+    else {
+      long copied = 0;
+      try (InputStream second = source.openStream()) {
+        byte[] chunk;
+        do {
+          chunk = readChunk(second);
+          addStoredChunk(chunk);
+          copied += chunk.length;
+        }
+        while (chunk.length == CHUNK_SIZE);
+      }
+      if (copied != entry.size) {
+        throw new IOException("The content of the entry '" + new String(entry.name, Charsets.UTF_8) + "' has changed while it was zipped");
+      }
+    }
+  }
+
+  private void addStoredChunk(byte[] chunk) throws IOException {
+    queue.add(chunk);
+    chunksInFlight++;
+    writeQueue(maxChunksInFlight);
+  }
+
+  private void putDeflatedEntry(Entry entry, InputStream in, byte[] firstChunk) throws IOException {
+    entry.method = METHOD_DEFLATED;
+    entry.flags = FLAG_UTF8 | FLAG_DATA_DESCRIPTOR;
+    queue.add(entry);
+
+    CRC32 crc = new CRC32();
+    byte[] dictionary = null;
+    byte[] chunk = firstChunk;
+    while (true) {
+      byte[] next = chunk.length == CHUNK_SIZE ? readChunk(in) : new byte[0];
+      boolean last = next.length == 0;
+      crc.update(chunk);
+      entry.size += chunk.length;
+      queue.add(executor.submit(new DeflateTask(level, dictionary, chunk, last)));
+      chunksInFlight++;
+      writeQueue(maxChunksInFlight);
+      if (last) {
+        break;
+      }
+      dictionary = Arrays.copyOfRange(chunk, Math.max(0, chunk.length - DICTIONARY_SIZE), chunk.length);
+      chunk = next;
+    }
+    entry.crc = crc.getValue();
+    queue.add(new DataDescriptor(entry));
+  }
+
+  /**
+   * @return the statistics of the entries written so far, by content type (see
+   *         {@link ZipCompressionPolicy#getType(String)}), sorted by type. Complete after {@link #close()}.
+   */
+  public Map<String, TypeStatistics> getStatistics() {
+    Map<String, TypeStatistics> result = new TreeMap<>();
+    for (Entry entry : entries) {
+      String type = ZipCompressionPolicy.getType(new String(entry.name, Charsets.UTF_8));
+      TypeStatistics statistics = result.get(type);
+      if (statistics == null) {
+        statistics = new TypeStatistics(type);
+        result.put(type, statistics);
+      }
+      statistics.add(entry.method == METHOD_STORED, entry.size, entry.compressedSize);
+    }
+    return result;
+  }
+
+  /**
+   * Wait for the compression of all entries, write the central directory and close the stream.
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      writeQueue(0);
+      writeCentralDirectory();
+    }
+    finally {
+      executor.shutdownNow();
+      out.close();
+    }
+  }
+
+  /**
+   * Stop the compression and close the stream without writing the pending entries and the central directory: the
+   * written content is not a valid zip file.
+   */
+  public void abort() throws IOException {
+    closed = true;
+    queue.clear();
+    try {
+      executor.shutdownNow();
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  private static byte[] readChunk(InputStream in) throws IOException {
+    byte[] buffer = new byte[CHUNK_SIZE];
+    int len = ByteStreams.read(in, buffer, 0, CHUNK_SIZE);
+    return len == CHUNK_SIZE ? buffer : Arrays.copyOf(buffer, len);
+  }
+
+  /**
+   * Write the head of the queue until at most maxChunks compressed chunks are pending.
+   */
+  private void writeQueue(int maxChunks) throws IOException {
+    while (!queue.isEmpty() && (chunksInFlight > maxChunks || !(queue.peek() instanceof Future))) {
+      Object item = queue.poll();
+      if (item instanceof Entry) {
+        writeLocalHeader((Entry) item);
+      }
+      else if (item instanceof DataDescriptor) {
+        writeDataDescriptor(((DataDescriptor) item).entry);
+      }
+      else if (item instanceof byte[]) {
+        //chunk of a stored entry:
+        chunksInFlight--;
+        out.write((byte[]) item);
+      }
+      else {
+        byte[] compressed = (byte[]) ConcurrentTasks.waitFor((Future<?>) item, "compressing a zip entry");
+        chunksInFlight--;
+        out.write(compressed);
+        entries.get(entries.size() - 1).compressedSize += compressed.length;
+      }
+    }
+  }
+
+  private void writeLocalHeader(Entry entry) throws IOException {
+    entry.offset = out.getCount();
+    entries.add(entry);
+    //the sizes of a deflated entry are in the data descriptor:
+    boolean known = entry.method == METHOD_STORED;
+    boolean zip64 = known && entry.size >= ZIP64_MAGIC;
+    writeInt(LOCAL_HEADER_SIGNATURE);
+    writeShort(zip64 ? VERSION_ZIP64 : VERSION);
+    writeShort(entry.flags);
+    writeShort(entry.method);
+    writeInt(entry.dosTime);
+    writeInt(known ? entry.crc : 0);
+    writeInt(known ? Math.min(entry.compressedSize, ZIP64_MAGIC) : 0);
+    writeInt(known ? Math.min(entry.size, ZIP64_MAGIC) : 0);
+    writeShort(entry.name.length);
+    writeShort(zip64 ? 20 : 0);
+    out.write(entry.name);
+    if (zip64) {
+      writeShort(0x0001);
+      writeShort(16);
+      writeLong(entry.size);
+      writeLong(entry.compressedSize);
+    }
+  }
+
+  private void writeDataDescriptor(Entry entry) throws IOException {
+    writeInt(DATA_DESCRIPTOR_SIGNATURE);
+    writeInt(entry.crc);
+    if (entry.size >= ZIP64_MAGIC || entry.compressedSize >= ZIP64_MAGIC) {
+      writeLong(entry.compressedSize);
+      writeLong(entry.size);
+    }
+    else {
+      writeInt(entry.compressedSize);
+      writeInt(entry.size);
+    }
+  }
+
+  private void writeCentralDirectory() throws IOException {
+    long offset = out.getCount();
+    for (Entry entry : entries) {
+      ByteArrayOutputStream extra = new ByteArrayOutputStream();
+      if (entry.size >= ZIP64_MAGIC) {
+        extra.write(littleEndian(entry.size, 8));
+      }
+      if (entry.compressedSize >= ZIP64_MAGIC) {
+        extra.write(littleEndian(entry.compressedSize, 8));
+      }
+      if (entry.offset >= ZIP64_MAGIC) {
+        extra.write(littleEndian(entry.offset, 8));
+      }
+      boolean zip64 = extra.size() > 0;
+      writeInt(CENTRAL_HEADER_SIGNATURE);
+      writeShort(zip64 ? VERSION_ZIP64 : VERSION);
+      writeShort(zip64 ? VERSION_ZIP64 : VERSION);
+      writeShort(entry.flags);
+      writeShort(entry.method);
+      writeInt(entry.dosTime);
+      writeInt(entry.crc);
+      writeInt(Math.min(entry.compressedSize, ZIP64_MAGIC));
+      writeInt(Math.min(entry.size, ZIP64_MAGIC));
+      writeShort(entry.name.length);
+      writeShort(zip64 ? extra.size() + 4 : 0);
+      writeShort(0); //comment
+      writeShort(0); //disk number
+      writeShort(0); //internal attributes
+      writeInt(0); //external attributes
+      writeInt(Math.min(entry.offset, ZIP64_MAGIC));
+      out.write(entry.name);
+      if (zip64) {
+        writeShort(0x0001);
+        writeShort(extra.size());
+        extra.writeTo(out);
+      }
+    }
+    long size = out.getCount() - offset;
+
+    if (entries.size() >= ZIP64_MAGIC_COUNT || offset >= ZIP64_MAGIC || size >= ZIP64_MAGIC) {
+      long zip64EndOffset = out.getCount();
+      writeInt(ZIP64_END_SIGNATURE);
+      writeLong(44); //size of the remaining record
+      writeShort(VERSION_ZIP64);
+      writeShort(VERSION_ZIP64);
+      writeInt(0); //number of this disk
+      writeInt(0); //disk with the central directory
+      writeLong(entries.size());
+      writeLong(entries.size());
+      writeLong(size);
+      writeLong(offset);
+
+      writeInt(ZIP64_LOCATOR_SIGNATURE);
+      writeInt(0); //disk with the zip64 end record
+      writeLong(zip64EndOffset);
+      writeInt(1); //total number of disks
+    }
+
+    writeInt(END_SIGNATURE);
+    writeShort(0); //number of this disk
+    writeShort(0); //disk with the central directory
+    writeShort(Math.min(entries.size(), ZIP64_MAGIC_COUNT));
+    writeShort(Math.min(entries.size(), ZIP64_MAGIC_COUNT));
+    writeInt(Math.min(size, ZIP64_MAGIC));
+    writeInt(Math.min(offset, ZIP64_MAGIC));
+    writeShort(0); //comment length
+  }
+
+  private void writeShort(int value) throws IOException {
+    out.write(littleEndian(value, 2));
+  }
+
+  private void writeInt(long value) throws IOException {
+    out.write(littleEndian(value, 4));
+  }
+
+  private void writeLong(long value) throws IOException {
+    out.write(littleEndian(value, 8));
+  }
+
+  private static byte[] littleEndian(long value, int length) {
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      bytes[i] = (byte) (value >>> (8 * i));
+    }
+    return bytes;
+  }
+
+  /**
+   * @return the time in the MS-DOS format used in zip files.
+   */
+  static long toDosTime(long time) {
+    Calendar c = Calendar.getInstance();
+    c.setTimeInMillis(time);
+    int year = c.get(Calendar.YEAR);
+    if (year < 1980) {
+      return (1 << 21) | (1 << 16);
+    }
+    return (year - 1980) << 25 | (c.get(Calendar.MONTH) + 1) << 21 | c.get(Calendar.DAY_OF_MONTH) << 16 | c.get(Calendar.HOUR_OF_DAY) << 11 | c.get(Calendar.MINUTE) << 5 | c.get(Calendar.SECOND) >> 1;
+  }
+
+  /**
+   * Number of entries and sizes for one content type.
+   */
+  public static class TypeStatistics {
+    private final String type;
+    private int entries;
+    private int storedEntries;
+    private long size;
+    private long compressedSize;
+
+    TypeStatistics(String type) {
+      this.type = type;
+    }
+
+    void add(boolean stored, long entrySize, long entryCompressedSize) {
+      entries++;
+      if (stored) {
+        storedEntries++;
+      }
+      size += entrySize;
+      compressedSize += entryCompressedSize;
+    }
+
+    /**
+     * @return the extension in lower case, empty for the entries without extension.
+     */
+    public String getType() {
+      return type;
+    }
+
+    public int getEntries() {
+      return entries;
+    }
+
+    public int getStoredEntries() {
+      return storedEntries;
+    }
+
+    public long getSize() {
+      return size;
+    }
+
+    public long getCompressedSize() {
+      return compressedSize;
+    }
+
+    /**
+     * @return compressed size divided by size (1 if nothing was saved).
+     */
+    public double getRatio() {
+      return size == 0 ? 1 : (double) compressedSize / size;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.ENGLISH, "%s: %d entries (%d stored), %d bytes -> %d bytes (%.1f%%)", type.isEmpty() ? "(no extension)" : type, entries, storedEntries, size, compressedSize, getRatio() * 100);
+    }
+  }
+
+  private static class Entry {
+    private final byte[] name;
+    private final long dosTime;
+    private int method;
+    private int flags;
+    private long crc;
+    private long size;
+    private long compressedSize;
+    private long offset;
+
+    Entry(String name, long time) {
+      this.name = name.getBytes(Charsets.UTF_8);
+      this.dosTime = toDosTime(time);
+    }
+  }
+
+  private static class DataDescriptor {
+    private final Entry entry;
+
+    DataDescriptor(Entry entry) {
+      this.entry = entry;
+    }
+  }
+
+  /**
+   * Deflate one chunk of an entry (raw deflate data, without zlib header).
+   */
+  private static class DeflateTask implements Callable<byte[]> {
+    private final int level;
+    private final byte[] dictionary;
+    private final byte[] input;
+    private final boolean last;
+
+    DeflateTask(int level, byte[] dictionary, byte[] input, boolean last) {
+      this.level = level;
+      this.dictionary = dictionary;
+      this.input = input;
+      this.last = last;
+    }
+
+    @Override
+    public byte[] call() {
+      Deflater deflater = new Deflater(level, true);
+      try {
+        if (dictionary != null) {
+          deflater.setDictionary(dictionary);
+        }
+        deflater.setInput(input);
+        ByteArrayOutputStream result = new ByteArrayOutputStream(input.length / 2 + 64);
+        byte[] buffer = new byte[16 * 1024];
+        if (last) {
+          deflater.finish();
+          while (!deflater.finished()) {
+            int len = deflater.deflate(buffer);
+            result.write(buffer, 0, len);
+          }
+        }
+        else {
+          //the sync flush terminates the chunk on a byte boundary, the next chunk can be appended:
+          int len;
+          do {
+            len = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+            result.write(buffer, 0, len);
+          }
+          while (len == buffer.length);
+        }
+        return result.toByteArray();
+      }
+      finally {
+        deflater.end();
+      }
+    }
+  }
+}
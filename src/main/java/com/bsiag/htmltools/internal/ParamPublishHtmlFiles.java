@@ -22,6 +22,17 @@ public class ParamPublishHtmlFiles {
   private Map<String, File> cssReplacement;
   private boolean fixXrefLinks;
   private boolean fixExternalLinks;
+  private String charset;
+  private OutputMode outputMode = OutputMode.PRETTY_ASCII;
+  private boolean minify;
+  private boolean fingerprintAssets;
+  private long inlineImageMaxSize;
+  private int threads = 1;
+  private AssetStore assetStore;
+  private boolean incremental;
+  private boolean writeOutFolder = true;
+  private List<PublishSink> sinks;
+  private PublishStatistics statistics;
 
   public File getInFolder() {
     return inFolder;
@@ -70,4 +81,142 @@ public class ParamPublishHtmlFiles {
   public void setFixExternalLinks(boolean fixExternalLinks) {
     this.fixExternalLinks = fixExternalLinks;
   }
+
+  public String getCharset() {
+    return charset;
+  }
+
+  /**
+   * @param charset
+   *          charset of the input pages. If null (default), it is detected from the BOM or from the meta tag of each
+   *          page, UTF-8 is used when nothing is found.
+   */
+  public void setCharset(String charset) {
+    this.charset = charset;
+  }
+
+  public OutputMode getOutputMode() {
+    return outputMode;
+  }
+
+  /**
+   * @param outputMode
+   *          how the pages are serialized. Default is {@link OutputMode#PRETTY_ASCII}.
+   */
+  public void setOutputMode(OutputMode outputMode) {
+    this.outputMode = outputMode;
+  }
+
+  public boolean isMinify() {
+    return minify;
+  }
+
+  /**
+   * @param minify
+   *          if true, the pages are minified with {@link HtmlMinifier} (whitespaces, comments, optional end tags,
+   *          boolean attributes). Default is false.
+   */
+  public void setMinify(boolean minify) {
+    this.minify = minify;
+  }
+
+  public boolean isFingerprintAssets() {
+    return fingerprintAssets;
+  }
+
+  /**
+   * @param fingerprintAssets
+   *          if true, the hash of the content is part of the name of the copied images and CSS files (see
+   *          {@link AssetFingerprints}). Default is false.
+   */
+  public void setFingerprintAssets(boolean fingerprintAssets) {
+    this.fingerprintAssets = fingerprintAssets;
+  }
+
+  public long getInlineImageMaxSize() {
+    return inlineImageMaxSize;
+  }
+
+  /**
+   * @param inlineImageMaxSize
+   *          size in bytes up to which an image (including the navigation images) is embedded in the page as data URI
+   *          instead of being copied (see {@link InlineImages}). Default is 0: no image is inlined.
+   */
+  public void setInlineImageMaxSize(long inlineImageMaxSize) {
+    this.inlineImageMaxSize = inlineImageMaxSize;
+  }
+
+  public int getThreads() {
+    return threads;
+  }
+
+  /**
+   * @param threads
+   *          number of pages published concurrently. With 1 (default) the pages are published one after the other.
+   */
+  public void setThreads(int threads) {
+    this.threads = threads;
+  }
+
+  public AssetStore getAssetStore() {
+    return assetStore;
+  }
+
+  /**
+   * @param assetStore
+   *          store used to copy the images and CSS files of this publish run. If null, a new store is created.
+   */
+  public void setAssetStore(AssetStore assetStore) {
+    this.assetStore = assetStore;
+  }
+
+  public boolean isIncremental() {
+    return incremental;
+  }
+
+  /**
+   * @param incremental
+   *          if true, the pages that are unchanged since the previous run are not published again (see
+   *          {@link PublishManifest}).
+   */
+  public void setIncremental(boolean incremental) {
+    this.incremental = incremental;
+  }
+
+  public boolean isWriteOutFolder() {
+    return writeOutFolder;
+  }
+
+  /**
+   * @param writeOutFolder
+   *          if false, nothing is written into outFolder: the pages are only given to the sinks. outFolder is still used
+   *          to resolve the files published during a previous run. Default is true.
+   */
+  public void setWriteOutFolder(boolean writeOutFolder) {
+    this.writeOutFolder = writeOutFolder;
+  }
+
+  public List<PublishSink> getSinks() {
+    return sinks;
+  }
+
+  /**
+   * @param sinks
+   *          additional destinations of the published pages and assets (for example a {@link ZipSink}), can be null.
+   */
+  public void setSinks(List<PublishSink> sinks) {
+    this.sinks = sinks;
+  }
+
+  public PublishStatistics getStatistics() {
+    return statistics;
+  }
+
+  /**
+   * @param statistics
+   *          collects the time spent in each stage and the counters of the run, can be null.
+   */
+  public void setStatistics(PublishStatistics statistics) {
+    this.statistics = statistics;
+  }
 }
@@ -0,0 +1,249 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Jeremie Bresson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jeremie Bresson - initial API and implementation
+ ******************************************************************************/
+package com.bsiag.htmltools.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+
+/**
+ * Gzip sidecar files (<code>page.html.gz</code> next to <code>page.html</code>) for the text files of the output, so
+ * that a web server can send them without compressing at request time (<code>gzip_static</code> of nginx).
+ * <p>
+ * The sidecar has the last modification time of its source: a sidecar with another time is stale. It is only written
+ * when it is smaller than its source. The files smaller than {@link #MIN_SIZE} are not compressed: no sidecar records
+ * that a file did not get smaller, so such a file would be compressed again on every run.
+ */
+public final class PrecompressedFiles {
+  public static final String GZIP_SUFFIX = ".gz";
+
+  /**
+   * Size in bytes under which a file has no sidecar (the gzip header and trailer take 18 bytes).
+   */
+  static final long MIN_SIZE = 256;
+
+  private static final Set<String> COMPRESSIBLE_EXTENSIONS = ImmutableSet.of("html", "htm", "css", "js", "svg");
+
+  private PrecompressedFiles() {
+  }
+
+  /**
+   * @return true for the files having a sidecar (HTML, CSS, JS and SVG files).
+   */
+  public static boolean isCompressible(String name) {
+    return COMPRESSIBLE_EXTENSIONS.contains(Files.getFileExtension(name).toLowerCase(Locale.ENGLISH));
+  }
+
+  /**
+   * @return true if the name is the name of a sidecar file (for example <code>page.html.gz</code>).
+   */
+  public static boolean isSidecar(String name) {
+    return name.endsWith(GZIP_SUFFIX) && isCompressible(sourceName(name));
+  }
+
+  static String sourceName(String sidecarName) {
+    return sidecarName.substring(0, sidecarName.length() - GZIP_SUFFIX.length());
+  }
+
+  public static File sidecar(File file) {
+    return new File(file.getParentFile(), file.getName() + GZIP_SUFFIX);
+  }
+
+  /**
+   * @return true if the sidecar of the file exists and is not older or newer than the file.
+   */
+  static boolean isUpToDate(File file) {
+    File sidecar = sidecar(file);
+    return sidecar.isFile() && sidecar.lastModified() == file.lastModified();
+  }
+
+  /**
+   * @return true if the sidecar of the file needs to be written. The sidecar of a file smaller than {@link #MIN_SIZE}
+   *         is deleted.
+   */
+  static boolean isStale(File file) throws IOException {
+    if (file.length() < MIN_SIZE) {
+      deleteSidecar(file);
+      return false;
+    }
+    return !isUpToDate(file);
+  }
+
+  /**
+   * Deletes the sidecar of the file (when the file is removed or replaced).
+   */
+  static void deleteSidecar(File file) throws IOException {
+    java.nio.file.Files.deleteIfExists(sidecar(file).toPath());
+  }
+
+  /**
+   * Writes the sidecar of the file, if it is smaller than the file. An existing sidecar is deleted otherwise.
+   *
+   * @return true if a sidecar was written.
+   */
+  static boolean compress(File file) throws IOException {
+    byte[] content = Files.toByteArray(file);
+    ByteArrayOutputStream out = new ByteArrayOutputStream(content.length / 3 + 64);
+    try (GZIPOutputStream gzip = new BestGzipOutputStream(out)) {
+      gzip.write(content);
+    }
+    File sidecar = sidecar(file);
+    if (out.size() >= content.length) {
+      deleteSidecar(file);
+      return false;
+    }
+    //written next to the sidecar and moved, the web server never sees a partial file:
+    File tmp = new File(sidecar.getParentFile(), sidecar.getName() + ".tmp");
+    Files.write(out.toByteArray(), tmp);
+    tmp.setLastModified(file.lastModified());
+    java.nio.file.Files.move(tmp.toPath(), sidecar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    return true;
+  }
+
+  /**
+   * Writes the sidecars of the compressible files that were created or replaced by the actions (they were executed)
+   * and whose sidecar is not up to date. The unchanged files of the synchronized folders keep their sidecar.
+   *
+   * @return the number of sidecars written.
+   */
+  public static int compressTargets(Collection<FileAction> actions, int threads) throws IOException {
+    List<File> files = new ArrayList<>();
+    for (FileAction action : actions) {
+      File file = action.getFile();
+      if (!action.isCreateFile()) {
+        continue;
+      }
+      if (file.isDirectory()) {
+        collectStaleFiles(file, files);
+      }
+      else if (isCompressible(file.getName()) && file.isFile() && isStale(file)) {
+        files.add(file);
+      }
+    }
+    return compressAll(files, threads);
+  }
+
+  /**
+   * Writes the sidecars of the compressible files of the folder (and its sub folders) that are not up to date. The
+   * sidecars of removed files are deleted.
+   *
+   * @return the number of sidecars written.
+   */
+  public static int compressFolder(File folder, int threads) throws IOException {
+    List<File> files = new ArrayList<>();
+    collectStaleFiles(folder, files);
+    return compressAll(files, threads);
+  }
+
+  private static void collectStaleFiles(File folder, List<File> files) throws IOException {
+    File[] children = folder.listFiles();
+    if (children == null) {
+      return;
+    }
+    for (File child : children) {
+      String name = child.getName();
+      if (child.isDirectory()) {
+        collectStaleFiles(child, files);
+      }
+      else if (isSidecar(name)) {
+        if (!new File(folder, sourceName(name)).isFile()) {
+          java.nio.file.Files.deleteIfExists(child.toPath());
+        }
+      }
+      else if (isCompressible(name) && isStale(child)) {
+        files.add(child);
+      }
+    }
+  }
+
+  /**
+   * Compresses the files concurrently.
+   *
+   * @return the number of sidecars written.
+   */
+  static int compressAll(List<File> files, int threads) throws IOException {
+    if (files.isEmpty()) {
+      return 0;
+    }
+    int count = 0;
+    if (threads <= 1 || files.size() == 1) {
+      for (File file : files) {
+        if (compress(file)) {
+          count++;
+        }
+      }
+      return count;
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, files.size()));
+    try {
+      List<Future<Boolean>> futures = new ArrayList<>();
+      for (final File file : files) {
+        futures.add(executor.submit(new Callable<Boolean>() {
+          @Override
+          public Boolean call() throws IOException {
+            return compress(file);
+          }
+        }));
+      }
+      IOException failure = null;
+      for (Future<Boolean> future : futures) {
+        try {
+          if (ConcurrentTasks.waitFor(future, "compressing a file")) {
+            count++;
+          }
+        }
+        catch (IOException e) {
+          if (Thread.currentThread().isInterrupted()) {
+            throw e;
+          }
+          if (failure == null) {
+            failure = e;
+          }
+          else {
+            failure.addSuppressed(e);
+          }
+        }
+      }
+      if (failure != null) {
+        throw failure;
+      }
+      return count;
+    }
+    finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Gzip stream with the best compression level: a sidecar is written once and sent many times.
+   */
+  private static class BestGzipOutputStream extends GZIPOutputStream {
+    BestGzipOutputStream(ByteArrayOutputStream out) throws IOException {
+      super(out);
+      def.setLevel(Deflater.BEST_COMPRESSION);
+    }
+  }
+}
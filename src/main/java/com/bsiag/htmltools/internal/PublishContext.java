@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Jeremie Bresson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jeremie Bresson - initial API and implementation
+ ******************************************************************************/
+package com.bsiag.htmltools.internal;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * State shared by all the pages published during one call of
+ * {@link PublishUtility#publishHtmlFiles(ParamPublishHtmlFiles)}. Pages might be published concurrently, the methods of
+ * this class are thread-safe.
+ */
+class PublishContext {
+
+  private final ParamPublishHtmlFiles param;
+  private final PageTitleIndex titleIndex;
+  private final AssetStore assetStore;
+  private final PublishManifest previousManifest;
+  private final PublishManifest manifest;
+  private final PublishStatistics statistics;
+  private final AssetFingerprints fingerprints;
+  private final InlineImages inlineImages;
+
+  PublishContext() {
+    this(new ParamPublishHtmlFiles(), null, new AssetStore(), null);
+  }
+
+  /**
+   * @param param
+   *          parameters of the publish run.
+   * @param titleIndex
+   *          title index of the pages list or null if no navigation needs to be created.
+   * @param assetStore
+   *          store used to copy the images and CSS files.
+   * @param previousManifest
+   *          manifest of the previous run, null if the run is not incremental.
+   */
+  PublishContext(ParamPublishHtmlFiles param, PageTitleIndex titleIndex, AssetStore assetStore, PublishManifest previousManifest) {
+    this.param = param;
+    this.titleIndex = titleIndex;
+    this.assetStore = assetStore;
+    this.previousManifest = previousManifest;
+    this.manifest = previousManifest == null ? null : new PublishManifest();
+    this.statistics = param.getStatistics() == null ? new PublishStatistics() : param.getStatistics();
+    this.fingerprints = param.isFingerprintAssets() ? new AssetFingerprints() : null;
+    this.inlineImages = param.getInlineImageMaxSize() > 0 ? new InlineImages(param.getInlineImageMaxSize()) : null;
+  }
+
+  ParamPublishHtmlFiles getParam() {
+    return param;
+  }
+
+  PageTitleIndex getTitleIndex() {
+    return titleIndex;
+  }
+
+  AssetStore getAssetStore() {
+    return assetStore;
+  }
+
+  PublishManifest getPreviousManifest() {
+    return previousManifest;
+  }
+
+  /**
+   * @return the additional sinks of the run (never null).
+   */
+  List<PublishSink> getSinks() {
+    return param.getSinks() == null ? Collections.<PublishSink> emptyList() : param.getSinks();
+  }
+
+  /**
+   * @return the manifest of this run (filled while the pages are published), null if the run is not incremental.
+   */
+  PublishManifest getManifest() {
+    return manifest;
+  }
+
+  /**
+   * @return the fingerprinted names of the assets of this run, null if the assets are not fingerprinted.
+   */
+  AssetFingerprints getFingerprints() {
+    return fingerprints;
+  }
+
+  /**
+   * @return the cache of the images inlined as data URIs, null if the images are not inlined.
+   */
+  InlineImages getInlineImages() {
+    return inlineImages;
+  }
+
+  /**
+   * @return the statistics of the run (never null).
+   */
+  PublishStatistics getStatistics() {
+    return statistics;
+  }
+}
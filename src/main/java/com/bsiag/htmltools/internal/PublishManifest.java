@@ -0,0 +1,216 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Jeremie Bresson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jeremie Bresson - initial API and implementation
+ ******************************************************************************/
+package com.bsiag.htmltools.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+/**
+ * Build manifest persisted in the output folder of a publish run, used for incremental publishing. For each page it
+ * records the hash of the input file, the hash of the options that have an influence on the output (see
+ * {@link PublishUtility#publishHtmlFiles(ParamPublishHtmlFiles)}) and the assets referenced by the page with the hash
+ * of their source. A page is republished only if one of them has changed.
+ * <p>
+ * The file is a text file, one line per record, the fields are separated by tabs:
+ *
+ * <pre>
+ * page  &lt;page name&gt;  &lt;input hash&gt;  &lt;options hash&gt;
+ * asset &lt;page name&gt;  &lt;target path&gt; &lt;source file&gt; &lt;source hash&gt;
+ * </pre>
+ *
+ * The target path of an image inlined as data URI (see {@link InlineImages}) is prefixed with <code>data:</code>.
+ */
+public class PublishManifest {
+  static final String FILE_NAME = ".htmltools-manifest";
+  private static final String HEADER = "# htmltools publish manifest v1";
+  private static final String SEPARATOR = "\t";
+
+  private final ConcurrentMap<String, Page> pages = new ConcurrentHashMap<>();
+
+  /**
+   * @param outFolder
+   * @return the manifest saved in the outFolder or an empty manifest if there is none (or if it can not be read).
+   * @throws IOException
+   */
+  public static PublishManifest load(File outFolder) throws IOException {
+    PublishManifest manifest = new PublishManifest();
+    File file = new File(outFolder, FILE_NAME);
+    if (!file.isFile()) {
+      return manifest;
+    }
+    List<String> lines = Files.readLines(file, Charsets.UTF_8);
+    if (lines.isEmpty() || !HEADER.equals(lines.get(0))) {
+      return manifest;
+    }
+    Map<String, List<Asset>> assets = new TreeMap<>();
+    for (String line : lines.subList(1, lines.size())) {
+      String[] fields = line.split(SEPARATOR, -1);
+      if (fields.length == 4 && "page".equals(fields[0])) {
+        assets.put(fields[1], new ArrayList<Asset>());
+        manifest.pages.put(fields[1], new Page(fields[1], fields[2], fields[3], Collections.<Asset> emptyList()));
+      }
+      else if (fields.length == 5 && "asset".equals(fields[0]) && assets.containsKey(fields[1])) {
+        assets.get(fields[1]).add(new Asset(fields[2], new File(fields[3]), fields[4]));
+      }
+      else {
+        //unexpected content, ignore the complete file:
+        return new PublishManifest();
+      }
+    }
+    for (Map.Entry<String, List<Asset>> e : assets.entrySet()) {
+      Page p = manifest.pages.get(e.getKey());
+      manifest.pages.put(p.getName(), new Page(p.getName(), p.getInputHash(), p.getOptionsHash(), e.getValue()));
+    }
+    return manifest;
+  }
+
+  /**
+   * Delete the manifest of the outFolder (if any).
+   */
+  public static void delete(File outFolder) {
+    File file = new File(outFolder, FILE_NAME);
+    if (file.exists()) {
+      file.delete();
+    }
+  }
+
+  public void save(File outFolder) throws IOException {
+    StringBuilder sb = new StringBuilder();
+    sb.append(HEADER).append('\n');
+    for (Page page : new TreeMap<>(pages).values()) {
+      sb.append("page").append(SEPARATOR).append(page.getName()).append(SEPARATOR).append(page.getInputHash()).append(SEPARATOR).append(page.getOptionsHash()).append('\n');
+      for (Asset asset : page.getAssets()) {
+        sb.append("asset").append(SEPARATOR).append(page.getName()).append(SEPARATOR).append(asset.getTargetPath()).append(SEPARATOR).append(asset.getSource().getPath()).append(SEPARATOR).append(asset.getSourceHash()).append('\n');
+      }
+    }
+    File file = new File(outFolder, FILE_NAME);
+    Files.createParentDirs(file);
+    Files.write(sb, file, Charsets.UTF_8);
+  }
+
+  /**
+   * @return the page or null if the manifest does not contain any entry for this page.
+   */
+  public Page getPage(String name) {
+    return pages.get(name);
+  }
+
+  public void putPage(Page page) {
+    pages.put(page.getName(), page);
+  }
+
+  public int size() {
+    return pages.size();
+  }
+
+  /**
+   * @param previous
+   *          entry of the page in the previous manifest (can be null)
+   * @param inputHash
+   *          hash of the current input file
+   * @param optionsHash
+   *          hash of the current options
+   * @param assetStore
+   *          used to compute the hash of the asset sources
+   * @param outFolder
+   *          output folder of the publish run
+   * @return true if the page does not need to be published again.
+   * @throws IOException
+   */
+  static boolean isUnchanged(Page previous, String inputHash, String optionsHash, AssetStore assetStore, File outFolder) throws IOException {
+    if (previous == null || !previous.getInputHash().equals(inputHash) || !previous.getOptionsHash().equals(optionsHash)) {
+      return false;
+    }
+    if (!new File(outFolder, previous.getName()).isFile()) {
+      return false;
+    }
+    for (Asset asset : previous.getAssets()) {
+      if (!asset.getSource().isFile() || (!asset.isInlined() && !new File(outFolder, asset.getTargetPath()).isFile())) {
+        return false;
+      }
+      if (!asset.getSourceHash().equals(assetStore.hash(asset.getSource()).toString())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public static class Page {
+    private final String name;
+    private final String inputHash;
+    private final String optionsHash;
+    private final List<Asset> assets;
+
+    public Page(String name, String inputHash, String optionsHash, List<Asset> assets) {
+      this.name = name;
+      this.inputHash = inputHash;
+      this.optionsHash = optionsHash;
+      this.assets = Collections.unmodifiableList(new ArrayList<>(assets));
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public String getInputHash() {
+      return inputHash;
+    }
+
+    public String getOptionsHash() {
+      return optionsHash;
+    }
+
+    public List<Asset> getAssets() {
+      return assets;
+    }
+  }
+
+  public static class Asset {
+    private final String targetPath;
+    private final File source;
+    private final String sourceHash;
+
+    public Asset(String targetPath, File source, String sourceHash) {
+      this.targetPath = targetPath;
+      this.source = source;
+      this.sourceHash = sourceHash;
+    }
+
+    public String getTargetPath() {
+      return targetPath;
+    }
+
+    public File getSource() {
+      return source;
+    }
+
+    public String getSourceHash() {
+      return sourceHash;
+    }
+
+    /**
+     * @return true if the asset is embedded in the page as data URI (nothing is copied to the target path).
+     */
+    public boolean isInlined() {
+      return targetPath.startsWith(InlineImages.DATA_URI_PREFIX);
+    }
+  }
+}
@@ -0,0 +1,62 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Jeremie Bresson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jeremie Bresson - initial API and implementation
+ ******************************************************************************/
+package com.bsiag.htmltools.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+
+import org.jsoup.nodes.Document;
+
+/**
+ * Additional destination of a publish run (see {@link ParamPublishHtmlFiles#setSinks(java.util.List)}). The published
+ * pages and the files they reference are given to the sink, paths are relative to the root of the output and use '/'
+ * as separator. Pages might be published concurrently: implementations need to be thread-safe.
+ */
+public interface PublishSink {
+
+  /**
+   * @param index
+   *          position of the page in the list of published pages.
+   * @param path
+   *          path of the page.
+   * @param doc
+   *          the published page, ready to be serialized (only when the pages are not written in the output folder).
+   */
+  void putPage(int index, String path, Document doc) throws IOException;
+
+  /**
+   * A page written in the output folder: published during this run or, for an incremental run, unchanged since the
+   * previous run.
+   *
+   * @param index
+   *          position of the page in the list of published pages.
+   * @param path
+   *          path of the page.
+   * @param publishedFile
+   *          content of the page in the output folder.
+   */
+  void putPage(int index, String path, File publishedFile) throws IOException;
+
+  /**
+   * An image or a CSS file referenced by a page. The same path might be given several times, with different sources:
+   * the source given with the highest index is kept (the last one for a given index).
+   *
+   * @param index
+   *          position of the page referencing the asset in the list of published pages.
+   */
+  void putAsset(int index, String path, File source) throws IOException;
+
+  /**
+   * A file taken from the resources of the plugin (navigation images). An asset with the same path replaces it.
+   */
+  void putResource(String path, URL resource) throws IOException;
+}
@@ -0,0 +1,283 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Jeremie Bresson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jeremie Bresson - initial API and implementation
+ ******************************************************************************/
+package com.bsiag.htmltools.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.base.CaseFormat;
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.io.Files;
+
+/**
+ * Timers and counters of a run of the mojos: time spent in each stage, pages, bytes and assets. The stage times of
+ * pages published concurrently are added up: their sum can be bigger than the elapsed time. The methods of this class
+ * are thread-safe.
+ */
+public class PublishStatistics {
+  public static enum Stage {
+    READ, PARSE, NAVIGATION, XREF_INDEX, REWRITE, ASSETS, MINIFY, SERIALIZE, SINKS, PDF, ZIP, UNZIP, COMPUTE_ACTIONS, EXECUTE_ACTIONS, PRECOMPRESS
+  }
+
+  public static enum Counter {
+    PAGES_PUBLISHED, PAGES_SKIPPED, BYTES_IN, BYTES_OUT, BYTES_SAVED_BY_MINIFY, ASSETS_COPIED, ASSETS_SKIPPED, IMAGES_INLINED, FILE_ACTIONS, PRECOMPRESSED_FILES
+  }
+
+  private final long startNanos = System.nanoTime();
+  private volatile long stopNanos = -1;
+  private final AtomicLongArray stageNanos = new AtomicLongArray(Stage.values().length);
+  private final AtomicLongArray counters = new AtomicLongArray(Counter.values().length);
+  private final ConcurrentLinkedQueue<PageStatistics> pages = new ConcurrentLinkedQueue<>();
+
+  public void addTime(Stage stage, long nanos) {
+    stageNanos.addAndGet(stage.ordinal(), nanos);
+  }
+
+  /**
+   * Adds the time elapsed since startNanos to the stage.
+   *
+   * @return the current time (in nanoseconds), start of the next stage.
+   */
+  public long addTimeSince(Stage stage, long startNanos) {
+    long now = System.nanoTime();
+    addTime(stage, now - startNanos);
+    return now;
+  }
+
+  public void increment(Counter counter, long delta) {
+    counters.addAndGet(counter.ordinal(), delta);
+  }
+
+  /**
+   * Records a published page.
+   *
+   * @param savedBytes
+   *          bytes removed by the minifier (0 if the page is not minified).
+   */
+  void addPage(String name, long nanos, long bytesIn, long bytesOut, long savedBytes) {
+    pages.add(new PageStatistics(name, nanos, bytesIn, bytesOut, savedBytes));
+    increment(Counter.PAGES_PUBLISHED, 1);
+    increment(Counter.BYTES_IN, bytesIn);
+    increment(Counter.BYTES_OUT, bytesOut);
+    increment(Counter.BYTES_SAVED_BY_MINIFY, savedBytes);
+  }
+
+  /**
+   * Stops the elapsed time (the first call is taken into account).
+   */
+  public void stop() {
+    if (stopNanos < 0) {
+      stopNanos = System.nanoTime();
+    }
+  }
+
+  public long getTime(Stage stage) {
+    return stageNanos.get(stage.ordinal());
+  }
+
+  public long getCount(Counter counter) {
+    return counters.get(counter.ordinal());
+  }
+
+  /**
+   * @return the time between the creation of this object and the call to {@link #stop()} (or now).
+   */
+  public long getElapsedNanos() {
+    return (stopNanos < 0 ? System.nanoTime() : stopNanos) - startNanos;
+  }
+
+  public double getPagesPerSecond() {
+    double seconds = getElapsedNanos() / 1e9;
+    return seconds <= 0 ? 0 : getCount(Counter.PAGES_PUBLISHED) / seconds;
+  }
+
+  /**
+   * @return the slowest pages, slowest first.
+   */
+  public List<PageStatistics> getSlowestPages(int count) {
+    List<PageStatistics> list = new ArrayList<>(pages);
+    Collections.sort(list, new Comparator<PageStatistics>() {
+      @Override
+      public int compare(PageStatistics p1, PageStatistics p2) {
+        int result = Long.compare(p2.nanos, p1.nanos);
+        return result != 0 ? result : p1.name.compareTo(p2.name);
+      }
+    });
+    return list.subList(0, Math.min(count, list.size()));
+  }
+
+  /**
+   * @return the lines of the summary table (the stages without time are not listed).
+   */
+  public List<String> formatSummary(int slowestPages) {
+    List<String> lines = new ArrayList<>();
+    long total = 0;
+    for (Stage stage : Stage.values()) {
+      total += getTime(stage);
+    }
+    lines.add(String.format(Locale.ROOT, "%-16s %12s %7s", "Stage", "Time (ms)", "Share"));
+    for (Stage stage : Stage.values()) {
+      long nanos = getTime(stage);
+      if (nanos > 0) {
+        lines.add(String.format(Locale.ROOT, "%-16s %12.1f %6.1f%%", toKey(stage), toMillis(nanos), 100.0 * nanos / total));
+      }
+    }
+    lines.add(String.format(Locale.ROOT, "Pages: %d published, %d skipped, %.1f pages/s (elapsed: %.1f ms)", getCount(Counter.PAGES_PUBLISHED), getCount(Counter.PAGES_SKIPPED), getPagesPerSecond(), toMillis(getElapsedNanos())));
+    lines.add(String.format(Locale.ROOT, "Bytes: %d in, %d out", getCount(Counter.BYTES_IN), getCount(Counter.BYTES_OUT)));
+    long savedBytes = getCount(Counter.BYTES_SAVED_BY_MINIFY);
+    if (savedBytes > 0) {
+      lines.add(String.format(Locale.ROOT, "Minify: %d bytes saved, %d bytes per page", savedBytes, savedBytes / getCount(Counter.PAGES_PUBLISHED)));
+    }
+    lines.add(String.format(Locale.ROOT, "Assets: %d copied, %d skipped", getCount(Counter.ASSETS_COPIED), getCount(Counter.ASSETS_SKIPPED)));
+    if (getCount(Counter.IMAGES_INLINED) > 0) {
+      lines.add(String.format(Locale.ROOT, "Inlined images: %d", getCount(Counter.IMAGES_INLINED)));
+    }
+    if (getCount(Counter.FILE_ACTIONS) > 0) {
+      lines.add(String.format(Locale.ROOT, "File actions: %d", getCount(Counter.FILE_ACTIONS)));
+    }
+    if (getCount(Counter.PRECOMPRESSED_FILES) > 0) {
+      lines.add(String.format(Locale.ROOT, "Precompressed files: %d", getCount(Counter.PRECOMPRESSED_FILES)));
+    }
+    List<PageStatistics> slowest = getSlowestPages(slowestPages);
+    if (!slowest.isEmpty()) {
+      lines.add("Slowest pages:");
+      for (PageStatistics page : slowest) {
+        if (page.savedBytes > 0) {
+          lines.add(String.format(Locale.ROOT, "%12.1f ms  %s (minify: %d bytes saved)", toMillis(page.nanos), page.name, page.savedBytes));
+        }
+        else {
+          lines.add(String.format(Locale.ROOT, "%12.1f ms  %s", toMillis(page.nanos), page.name));
+        }
+      }
+    }
+    return lines;
+  }
+
+  /**
+   * @return the statistics as JSON object (times in milliseconds).
+   */
+  public String toJson(int slowestPages) {
+    StringBuilder sb = new StringBuilder();
+    sb.append("{\n");
+    sb.append("  \"elapsedMillis\": ").append(formatMillis(getElapsedNanos())).append(",\n");
+    sb.append("  \"pagesPerSecond\": ").append(String.format(Locale.ROOT, "%.3f", getPagesPerSecond())).append(",\n");
+    sb.append("  \"stages\": {");
+    String separator = "\n";
+    for (Stage stage : Stage.values()) {
+      sb.append(separator).append("    \"").append(toKey(stage)).append("\": ").append(formatMillis(getTime(stage)));
+      separator = ",\n";
+    }
+    sb.append("\n  },\n");
+    sb.append("  \"counters\": {");
+    separator = "\n";
+    for (Counter counter : Counter.values()) {
+      sb.append(separator).append("    \"").append(toKey(counter)).append("\": ").append(getCount(counter));
+      separator = ",\n";
+    }
+    sb.append("\n  },\n");
+    sb.append("  \"slowestPages\": [");
+    separator = "\n";
+    for (PageStatistics page : getSlowestPages(slowestPages)) {
+      sb.append(separator).append("    {\"name\": \"").append(escapeJson(page.name)).append("\", \"millis\": ").append(formatMillis(page.nanos));
+      sb.append(", \"bytesIn\": ").append(page.bytesIn).append(", \"bytesOut\": ").append(page.bytesOut);
+      sb.append(", \"bytesSavedByMinify\": ").append(page.savedBytes).append("}");
+      separator = ",\n";
+    }
+    sb.append(separator.equals("\n") ? "]\n" : "\n  ]\n");
+    sb.append("}\n");
+    return sb.toString();
+  }
+
+  public void writeJson(File file, int slowestPages) throws IOException {
+    Files.createParentDirs(file);
+    Files.write(toJson(slowestPages), file, Charsets.UTF_8);
+  }
+
+  private static String toKey(Enum<?> value) {
+    return CaseFormat.UPPER_UNDERSCORE.to(CaseFormat.LOWER_CAMEL, value.name());
+  }
+
+  private static double toMillis(long nanos) {
+    return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+  }
+
+  private static String formatMillis(long nanos) {
+    return String.format(Locale.ROOT, "%.3f", toMillis(nanos));
+  }
+
+  static String escapeJson(String value) {
+    StringBuilder sb = new StringBuilder(value.length());
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        sb.append('\\').append(c);
+      }
+      else if (c < ' ') {
+        sb.append("\\u").append(Strings.padStart(Integer.toHexString(c), 4, '0'));
+      }
+      else {
+        sb.append(c);
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Time and size of a published page.
+   */
+  public static class PageStatistics {
+    private final String name;
+    private final long nanos;
+    private final long bytesIn;
+    private final long bytesOut;
+    private final long savedBytes;
+
+    PageStatistics(String name, long nanos, long bytesIn, long bytesOut, long savedBytes) {
+      this.name = name;
+      this.nanos = nanos;
+      this.bytesIn = bytesIn;
+      this.bytesOut = bytesOut;
+      this.savedBytes = savedBytes;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public long getNanos() {
+      return nanos;
+    }
+
+    public long getBytesIn() {
+      return bytesIn;
+    }
+
+    public long getBytesOut() {
+      return bytesOut;
+    }
+
+    /**
+     * @return the bytes removed by the minifier.
+     */
+    public long getSavedBytes() {
+      return savedBytes;
+    }
+  }
+}
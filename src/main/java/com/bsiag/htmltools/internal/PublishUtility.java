@@ -10,11 +10,22 @@
  ******************************************************************************/
 package com.bsiag.htmltools.internal;
 
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileFilter;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -22,16 +33,25 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.jsoup.Jsoup;
+import org.jsoup.SerializationException;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import org.jsoup.nodes.Node;
 import org.jsoup.parser.Tag;
 import org.jsoup.select.Elements;
 
+import com.bsiag.htmltools.internal.PublishStatistics.Counter;
+import com.bsiag.htmltools.internal.PublishStatistics.Stage;
 import com.google.common.base.Charsets;
 import com.google.common.io.Files;
 import com.google.common.io.Resources;
@@ -43,44 +63,33 @@ public class PublishUtility {
   private static final String IMAGE_HOME = "home.gif";
   private static final String IMAGE_NEXT = "next.gif";
   private static final String IMAGE_PREV = "prev.gif";
-  private static final FilenameFilter HTML_FILENAME_FILTER = new FilenameFilter() {
-
-    @Override
-    public boolean accept(File dir, String name) {
-      return name.endsWith("html") && !name.equals("index.html");
-    }
-  };
-  private static final FileFilter DIRECTORY_FILEFILTER = new FileFilter() {
-
-    @Override
-    public boolean accept(File file) {
-      return file.isDirectory();
-    }
-  };
-
+  /**
+   * Publish the HTML files described by param.
+   * <p>
+   * In incremental mode, a {@link PublishManifest} is stored in the outFolder. A page is not published again if its
+   * input, the options and the assets it references are unchanged since the previous run. Any run that is not
+   * incremental deletes the manifest.
+   *
+   * @param param
+   * @throws IOException
+   */
   public static void publishHtmlFiles(ParamPublishHtmlFiles param) throws IOException {
     final File inFolder = param.getInFolder();
     final List<File> inFiles = param.getInFiles();
     final File outFolder = param.getOutFolder();
-    final Map<String, File> cssReplacement = param.getCssReplacement();
-    final boolean fixXrefLinks = param.isFixXrefLinks();
-    final boolean fixExternalLinks = param.isFixExternalLinks();
 
     if (!inFolder.exists() || !inFolder.isDirectory()) {
       throw new IllegalStateException("Folder inFolder '" + inFolder.getAbsolutePath() + "' not found.");
     }
 
     List<File> files;
-    RootItem root;
+    PageTitleIndex titleIndex;
     if (inFiles != null) {
       if (inFiles.size() > 1) {
-        copyNavImg(outFolder);
-
-        String title = readAndFindFirstHeader(inFiles.get(0));
-        root = new RootItem(title, inFiles.get(0).getName());
+        titleIndex = PageTitleIndex.build(inFiles, param.getCharset());
       }
       else {
-        root = null;
+        titleIndex = null;
       }
       files = inFiles;
     }
@@ -92,63 +101,259 @@ public class PublishUtility {
         }
       });
       files = Arrays.asList(childFiles);
-      root = null;
+      titleIndex = null;
     }
 
-    for (File file : files) {
-      publishHtmlFile(inFolder, file, outFolder, cssReplacement, inFiles, root, fixXrefLinks, fixExternalLinks);
+    AssetStore assetStore = param.getAssetStore() != null ? param.getAssetStore() : new AssetStore();
+    PublishManifest previousManifest = null;
+    if (param.isWriteOutFolder()) {
+      if (param.isIncremental()) {
+        previousManifest = PublishManifest.load(outFolder);
+      }
+      //the manifest is written again at the end of a successful incremental run:
+      PublishManifest.delete(outFolder);
+    }
+
+    final PublishContext context = new PublishContext(param, titleIndex, assetStore, previousManifest);
+    if (titleIndex != null) {
+      //the navigation images that are inlined in the pages are not needed:
+      List<String> navImages = new ArrayList<>();
+      for (String image : Arrays.asList(IMAGE_HOME, IMAGE_NEXT, IMAGE_PREV)) {
+        if (navImageDataUri(context.getInlineImages(), image) == null) {
+          navImages.add(image);
+        }
+      }
+      if (param.isWriteOutFolder()) {
+        copyNavImg(outFolder, navImages);
+      }
+      for (PublishSink sink : context.getSinks()) {
+        for (String image : navImages) {
+          sink.putResource(IMAGES_SUB_PATH + image, Resources.getResource("nav_images/" + image));
+        }
+      }
+    }
+    int threads = Math.min(param.getThreads(), files.size());
+    if (threads <= 1) {
+      for (int i = 0; i < files.size(); i++) {
+        publishHtmlFile(context, i, files.get(i));
+      }
+    }
+    else {
+      ExecutorService executor = Executors.newFixedThreadPool(threads);
+      try {
+        List<Future<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++) {
+          final int index = i;
+          final File file = files.get(i);
+          futures.add(executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+              publishHtmlFile(context, index, file);
+              return null;
+            }
+          }));
+        }
+        for (Future<Void> future : futures) {
+          ConcurrentTasks.waitFor(future, "publishing a page");
+        }
+      }
+      finally {
+        executor.shutdownNow();
+      }
+    }
+
+    if (context.getManifest() != null) {
+      context.getManifest().save(outFolder);
+    }
+    if (context.getFingerprints() != null && param.isWriteOutFolder()) {
+      File file = context.getFingerprints().save(outFolder);
+      for (PublishSink sink : context.getSinks()) {
+        sink.putAsset(Integer.MAX_VALUE, AssetFingerprints.FILE_NAME, file);
+      }
     }
   }
 
+  /**
+   * @return a description of the options that have an influence on the content of a published page. It is stored as
+   *         hash in the {@link PublishManifest}: the page is published again when this value changes.
+   */
+  private static String describeOptions(PublishContext context, File inFile) {
+    ParamPublishHtmlFiles param = context.getParam();
+    StringBuilder sb = new StringBuilder();
+    sb.append("fixXrefLinks=").append(param.isFixXrefLinks()).append('\n');
+    sb.append("fixExternalLinks=").append(param.isFixExternalLinks()).append('\n');
+    if (param.getCharset() != null) {
+      sb.append("charset=").append(param.getCharset()).append('\n');
+    }
+    if (param.getOutputMode() != OutputMode.PRETTY_ASCII) {
+      sb.append("outputMode=").append(param.getOutputMode()).append('\n');
+    }
+    if (param.isMinify()) {
+      sb.append("minify=true\n");
+    }
+    if (param.isFingerprintAssets()) {
+      sb.append("fingerprintAssets=true\n");
+    }
+    if (param.getInlineImageMaxSize() > 0) {
+      sb.append("inlineImageMaxSize=").append(param.getInlineImageMaxSize()).append('\n');
+    }
+    if (param.getCssReplacement() != null) {
+      for (Map.Entry<String, File> e : new TreeMap<>(param.getCssReplacement()).entrySet()) {
+        sb.append("cssReplacement=").append(e.getKey()).append('>').append(e.getValue().getAbsolutePath()).append('\n');
+      }
+    }
+    PageTitleIndex pages = context.getTitleIndex();
+    if (pages != null) {
+      int i = pages.indexOf(inFile);
+      sb.append("page=").append(i).append('/').append(pages.size()).append('\n');
+      sb.append("root=").append(pages.getHref(0)).append('>').append(pages.getTitle(0)).append('\n');
+      if (i > 0) {
+        sb.append("prev=").append(pages.getHref(i - 1)).append('>').append(pages.getTitle(i - 1)).append('\n');
+      }
+      if (i < pages.size() - 1) {
+        sb.append("next=").append(pages.getHref(i + 1)).append('>').append(pages.getTitle(i + 1)).append('\n');
+      }
+    }
+    return sb.toString();
+  }
+
   /**
    * Take a single HTML file and publish it to the outFolder.
    * Images and CSS resources are moved, HTML is formatted.
    *
-   * @param inFolder
-   *          root folder where the input HTML file is located.
-   * @param outFolder
-   *          directory where the post-processed HTML file is saved.
-   * @param cssReplacement
-   * @param pageList
-   * @param root
-   * @param fixXrefLinks
-   *          tells if the cross references links should be fixed as described here
-   *          https://github.com/asciidoctor/asciidoctor/issues/858
-   * @param fixExternalLinks
-   *          add taget="_blank" on links starting with http(s):// or ftp://
+   * The options are taken from the parameters of the run:
+   * <ul>
+   * <li>inFolder: root folder where the input HTML file is located.</li>
+   * <li>outFolder: directory where the post-processed HTML file is saved.</li>
+   * <li>fixXrefLinks: tells if the cross references links should be fixed as described here
+   * https://github.com/asciidoctor/asciidoctor/issues/858</li>
+   * <li>fixExternalLinks: add taget="_blank" on links starting with http(s):// or ftp://</li>
+   * </ul>
+   *
+   * @param context
+   *          state shared with the other pages of the same publish run (contains the page title index used to
+   *          create the navigation, if there is a list of pages).
+   * @param index
+   *          position of the page in the list of published pages.
+   * @param inFile
+   *          the HTML file
    * @throws IOException
    */
-  private static void publishHtmlFile(File inFolder, File inFile, File outFolder, Map<String, File> cssReplacement, List<File> pageList, RootItem root, boolean fixXrefLinks, boolean fixExternalLinks) throws IOException {
+  private static void publishHtmlFile(PublishContext context, int index, File inFile) throws IOException {
+    ParamPublishHtmlFiles param = context.getParam();
+    File inFolder = param.getInFolder();
+    File outFolder = param.getOutFolder();
     File outFile = new File(outFolder, inFile.getName());
-    String html = Files.toString(inFile, Charsets.UTF_8);
+    PublishStatistics statistics = context.getStatistics();
+    long pageStart = System.nanoTime();
+    long start = pageStart;
+    long inputLength = inFile.length();
+
+    String inputHash = null;
+    String optionsHash = null;
+    if (context.getManifest() != null) {
+      inputHash = Files.hash(inFile, AssetStore.HASH_FUNCTION).toString();
+      start = statistics.addTimeSince(Stage.READ, start);
+      optionsHash = AssetStore.HASH_FUNCTION.hashString(describeOptions(context, inFile), Charsets.UTF_8).toString();
+      PublishManifest.Page previous = context.getPreviousManifest().getPage(outFile.getName());
+      if (PublishManifest.isUnchanged(previous, inputHash, optionsHash, context.getAssetStore(), outFolder)) {
+        context.getManifest().putPage(previous);
+        for (PublishSink sink : context.getSinks()) {
+          sink.putPage(index, outFile.getName(), outFile);
+          for (PublishManifest.Asset asset : previous.getAssets()) {
+            if (!asset.isInlined()) {
+              sink.putAsset(index, asset.getTargetPath(), asset.getSource());
+            }
+          }
+        }
+        if (context.getFingerprints() != null) {
+          for (PublishManifest.Asset asset : previous.getAssets()) {
+            if (asset.isInlined()) {
+              continue;
+            }
+            context.getFingerprints().put(AssetFingerprints.logicalPath(asset.getTargetPath()), asset.getTargetPath());
+          }
+        }
+        statistics.increment(Counter.PAGES_SKIPPED, 1);
+        statistics.increment(Counter.BYTES_IN, inputLength);
+        return;
+      }
+    }
 
-    Document doc = Jsoup.parse(html);
-    doc.outputSettings().charset("ASCII");
+    //the page is read and decoded by JSoup:
+    Document doc = parse(inFile, param.getCharset());
+    param.getOutputMode().apply(doc);
+    start = statistics.addTimeSince(Stage.PARSE, start);
 
-    if (pageList != null && pageList.size() > 1) {
-      fixNavigation(doc, inFile, pageList, root);
+    if (context.getTitleIndex() != null) {
+      fixNavigation(doc, inFile, context.getTitleIndex(), context.getInlineImages());
+      start = statistics.addTimeSince(Stage.NAVIGATION, start);
     }
 
-    if (fixXrefLinks) {
-      fixListingLink(doc);
-      fixFigureLink(doc);
-      fixTableLink(doc);
+    //All the fixes are applied in one traversal of the document:
+    DomRewriter rewriter = new DomRewriter();
+    if (param.isFixXrefLinks()) {
+      XrefIndex xrefIndex = new XrefIndex(doc);
+      start = statistics.addTimeSince(Stage.XREF_INDEX, start);
+      rewriter.register(createListingLinkFix(xrefIndex), "a");
+      rewriter.register(createFigureLinkFix(xrefIndex), "a");
+      rewriter.register(createTableLinkFix(xrefIndex), "a");
     }
 
-    if (fixExternalLinks) {
-      fixExternalLinks(doc);
+    if (param.isFixExternalLinks()) {
+      rewriter.register(createExternalLinkFix(), "a");
     }
 
-    Files.createParentDirs(outFile);
-    moveAndCopyImages(doc, inFolder, outFolder, IMAGES_SUB_PATH);
+    PublishedPage page = new PublishedPage(index, inFile);
+    rewriter.register(createImagesFix(context, page, inFolder, outFolder, IMAGES_SUB_PATH), "img");
+    rewriter.register(createCssFix(context, page, inFolder, outFolder, CSS_SUB_PATH, param.getCssReplacement()), "link");
 
-    moveAndCopyCss(doc, inFolder, outFolder, CSS_SUB_PATH, cssReplacement);
+    if (param.isWriteOutFolder()) {
+      Files.createParentDirs(outFile);
+    }
+    rewriter.rewrite(doc);
+    //the assets are copied during the traversal, their time is counted separately:
+    long now = System.nanoTime();
+    statistics.addTime(Stage.REWRITE, now - start - page.getAssetNanos());
+    start = now;
+
+    long savedBytes = 0;
+    if (param.isMinify()) {
+      savedBytes = HtmlMinifier.minify(doc);
+      start = statistics.addTimeSince(Stage.MINIFY, start);
+    }
 
-    String content = trimTrailingWhitespaces(doc.toString());
-    Files.write(content, outFile, Charsets.UTF_8);
+    long bytesOut = 0;
+    if (param.isWriteOutFolder()) {
+      PrecompressedFiles.deleteSidecar(outFile);
+      writeDocument(doc, outFile, param.isMinify());
+      bytesOut = outFile.length();
+      start = statistics.addTimeSince(Stage.SERIALIZE, start);
+    }
+    for (PublishSink sink : context.getSinks()) {
+      if (param.isWriteOutFolder()) {
+        //the page is serialized once, the sinks get the written file:
+        sink.putPage(index, outFile.getName(), outFile);
+      }
+      else {
+        sink.putPage(index, outFile.getName(), doc);
+      }
+    }
+    if (!context.getSinks().isEmpty()) {
+      start = statistics.addTimeSince(Stage.SINKS, start);
+    }
+
+    if (context.getManifest() != null) {
+      context.getManifest().putPage(new PublishManifest.Page(outFile.getName(), inputHash, optionsHash, page.getAssets()));
+    }
+    statistics.addPage(inFile.getName(), System.nanoTime() - pageStart, inputLength, bytesOut, savedBytes);
   }
 
   public static void publishPdfFiles(File inFolder, File outFolder) throws IOException {
+    publishPdfFiles(inFolder, outFolder, CopyStrategy.COPY);
+  }
+
+  public static void publishPdfFiles(File inFolder, File outFolder, CopyStrategy copyStrategy) throws IOException {
     if (!inFolder.exists() || !inFolder.isDirectory()) {
       throw new IllegalStateException("Folder inFolder '" + inFolder.getAbsolutePath() + "' not found.");
     }
@@ -165,24 +370,35 @@ public class PublishUtility {
     }
 
     for (File file : files) {
-      publishPdfFile(file, outFolder);
+      publishPdfFile(file, outFolder, copyStrategy);
     }
   }
 
-  private static void copyNavImg(File htmlFolder) throws IOException {
+  private static void copyNavImg(File htmlFolder, List<String> images) throws IOException {
+    if (images.isEmpty()) {
+      return;
+    }
     File toFolder = new File(htmlFolder, IMAGES_SUB_PATH);
     toFolder.mkdirs();
 
-    Resources.copy(Resources.getResource("nav_images/" + IMAGE_HOME), new FileOutputStream(new File(toFolder, IMAGE_HOME)));
-    Resources.copy(Resources.getResource("nav_images/" + IMAGE_NEXT), new FileOutputStream(new File(toFolder, IMAGE_NEXT)));
-    Resources.copy(Resources.getResource("nav_images/" + IMAGE_PREV), new FileOutputStream(new File(toFolder, IMAGE_PREV)));
+    for (String image : images) {
+      Resources.copy(Resources.getResource("nav_images/" + image), new FileOutputStream(new File(toFolder, image)));
+    }
   }
 
-  private static void publishPdfFile(File inFile, File outFolder) throws IOException {
-    File outFile = new File(outFolder, inFile.getName());
+  /**
+   * @return the data URI of the navigation image or null if it is not inlined.
+   */
+  private static String navImageDataUri(InlineImages inlineImages, String image) throws IOException {
+    if (inlineImages == null) {
+      return null;
+    }
+    return inlineImages.dataUri(image, Resources.getResource("nav_images/" + image));
+  }
 
-    Files.createParentDirs(outFile);
-    Files.copy(inFile, outFile);
+  private static void publishPdfFile(File inFile, File outFolder, CopyStrategy copyStrategy) throws IOException {
+    File outFile = new File(outFolder, inFile.getName());
+    copyStrategy.copy(inFile, outFile);
   }
 
   /**
@@ -197,6 +413,13 @@ public class PublishUtility {
    * @throws IOException
    */
   public static void moveAndCopyImages(Document doc, File inFolder, File outFolder, String imgSubPath) throws IOException {
+    new DomRewriter().register(createImagesFix(new PublishContext(), new PublishedPage(null), inFolder, outFolder, imgSubPath), "img").rewrite(doc);
+  }
+
+  /**
+   * @return the fix for the "img" elements, see {@link #moveAndCopyImages(Document, File, File, String)}
+   */
+  static DomFix createImagesFix(final PublishContext context, final PublishedPage page, final File inFolder, final File outFolder, final String imgSubPath) {
     if (imgSubPath == null) {
       throw new IllegalArgumentException("imgSubPath can not be null, use empty string if you do not want to modify the relative path of the image file");
     }
@@ -204,31 +427,62 @@ public class PublishUtility {
       throw new IllegalArgumentException("imgSubPath point to an other subdirectory. It should ends with '/'");
     }
 
-    Elements elements = doc.getElementsByTag("img");
-    for (Element element : elements) {
-      String src = element.attr("src");
-      if (src != null) {
-        //consider that the src attribute is relative to the inFolder:
-        File inFile = new File(inFolder, src);
-        //if no file exists at this location, consider that the src attribute contains an absolute path to the image:
-        if (!inFile.exists() || !inFile.isFile()) {
-          inFile = new File(src);
-        }
-        String newSrc = imgSubPath + inFile.getName();
-        element.attr("src", newSrc);
-        File outFile = new File(outFolder, newSrc);
-        if (inFile.exists() && inFile.isFile()) {
-          Files.createParentDirs(outFile);
-          Files.copy(inFile, outFile);
-        }
-        else if (outFile.exists() && outFile.isFile()) {
-          //the in file was not found as inFile and it was not copied, but the outFile already exists. Nothing to do, no warning.
-        }
-        else {
-          System.err.println("Image file '" + inFile.getAbsolutePath() + "' is missing");
-        }
+    return new DomFix() {
+      @Override
+      public void apply(Element element) throws IOException {
+        moveAndCopyImage(context, page, element, inFolder, outFolder, imgSubPath);
+      }
+    };
+  }
+
+  private static void moveAndCopyImage(PublishContext context, PublishedPage page, Element element, File inFolder, File outFolder, String imgSubPath) throws IOException {
+    String src = element.attr("src");
+    if (src != null && !src.startsWith(InlineImages.DATA_URI_PREFIX)) {
+      //consider that the src attribute is relative to the inFolder:
+      File inFile = new File(inFolder, src);
+      //if no file exists at this location, consider that the src attribute contains an absolute path to the image:
+      if (!inFile.exists() || !inFile.isFile()) {
+        inFile = new File(src);
+      }
+      if (inlineImage(context, page, element, inFile, imgSubPath)) {
+        return;
+      }
+      String newSrc = targetPath(context, imgSubPath + inFile.getName(), inFile);
+      element.attr("src", newSrc);
+      File outFile = new File(outFolder, newSrc);
+      if (inFile.exists() && inFile.isFile()) {
+        copyAsset(context, page, inFile, outFile, newSrc);
       }
+      else if (outFile.exists() && outFile.isFile()) {
+        //the in file was not found as inFile and it was not copied, but the outFile already exists. Nothing to do, no warning.
+      }
+      else {
+        System.err.println("Image file '" + inFile.getAbsolutePath() + "' is missing");
+      }
+    }
+  }
+
+  /**
+   * Embeds the image in the page as data URI if it is small enough. The image is recorded in the page (without target
+   * file), so that the page is published again when the image changes.
+   *
+   * @return true if the image is inlined.
+   */
+  private static boolean inlineImage(PublishContext context, PublishedPage page, Element element, File inFile, String imgSubPath) throws IOException {
+    InlineImages inlineImages = context.getInlineImages();
+    if (inlineImages == null) {
+      return false;
     }
+    String dataUri = inlineImages.dataUri(inFile);
+    if (dataUri == null) {
+      return false;
+    }
+    element.attr("src", dataUri);
+    context.getStatistics().increment(Counter.IMAGES_INLINED, 1);
+    if (context.getManifest() != null) {
+      page.addAsset(InlineImages.DATA_URI_PREFIX + imgSubPath + inFile.getName(), inFile, context.getAssetStore().hash(inFile).toString());
+    }
+    return true;
   }
 
   /**
@@ -243,6 +497,13 @@ public class PublishUtility {
    * @throws IOException
    */
   public static void moveAndCopyCss(Document doc, File inFolder, File outFolder, String cssSubPath, Map<String, File> cssReplacement) throws IOException {
+    new DomRewriter().register(createCssFix(new PublishContext(), new PublishedPage(null), inFolder, outFolder, cssSubPath, cssReplacement), "link").rewrite(doc);
+  }
+
+  /**
+   * @return the fix for the "link" elements, see {@link #moveAndCopyCss(Document, File, File, String, Map)}
+   */
+  static DomFix createCssFix(final PublishContext context, final PublishedPage page, final File inFolder, final File outFolder, final String cssSubPath, final Map<String, File> cssReplacement) {
     if (cssSubPath == null) {
       throw new IllegalArgumentException("cssSubPath can not be null, use empty string if you do not want to change the relative path of the css file");
     }
@@ -250,32 +511,75 @@ public class PublishUtility {
       throw new IllegalArgumentException("cssSubPath point to an other subdirectory. It should ends with '/'");
     }
 
-    Elements elements = doc.getElementsByTag("link");
-    for (Element element : elements) {
-      String rel = element.attr("rel");
-      if ("stylesheet".equals(rel)) {
-        String href = element.attr("href");
-        if (href != null && !href.startsWith("http")) {
-          File inFile = new File(inFolder, href);
-          inFile = replaceCssFile(inFile, cssReplacement);
-          String newHref = cssSubPath + inFile.getName();
-          element.attr("href", newHref);
-          File outFile = new File(outFolder, newHref);
-          if (inFile.exists() && inFile.isFile()) {
-            Files.createParentDirs(outFile);
-            Files.copy(inFile, outFile);
-          }
-          else if (outFile.exists() && outFile.isFile()) {
-            //the in file was not found as inFile and it was not copied, but the outFile already exists. Nothing to do, no warning.
-          }
-          else {
-            System.err.println("CSS file '" + inFile.getAbsolutePath() + "' is missing");
-          }
+    return new DomFix() {
+      @Override
+      public void apply(Element element) throws IOException {
+        moveAndCopyCss(context, page, element, inFolder, outFolder, cssSubPath, cssReplacement);
+      }
+    };
+  }
+
+  private static void moveAndCopyCss(PublishContext context, PublishedPage page, Element element, File inFolder, File outFolder, String cssSubPath, Map<String, File> cssReplacement) throws IOException {
+    String rel = element.attr("rel");
+    if ("stylesheet".equals(rel)) {
+      String href = element.attr("href");
+      if (href != null && !href.startsWith("http")) {
+        File inFile = new File(inFolder, href);
+        inFile = replaceCssFile(inFile, cssReplacement);
+        String newHref = targetPath(context, cssSubPath + inFile.getName(), inFile);
+        element.attr("href", newHref);
+        File outFile = new File(outFolder, newHref);
+        if (inFile.exists() && inFile.isFile()) {
+          copyAsset(context, page, inFile, outFile, newHref);
+        }
+        else if (outFile.exists() && outFile.isFile()) {
+          //the in file was not found as inFile and it was not copied, but the outFile already exists. Nothing to do, no warning.
+        }
+        else {
+          System.err.println("CSS file '" + inFile.getAbsolutePath() + "' is missing");
         }
       }
     }
   }
 
+  /**
+   * @return the path of the asset in the outFolder: the logical path, or the fingerprinted path if the assets are
+   *         fingerprinted (and inFile exists).
+   */
+  private static String targetPath(PublishContext context, String logicalPath, File inFile) throws IOException {
+    AssetFingerprints fingerprints = context.getFingerprints();
+    if (fingerprints == null || !inFile.isFile()) {
+      return logicalPath;
+    }
+    String fingerprintedPath = AssetFingerprints.fingerprint(logicalPath, context.getAssetStore().hash(inFile));
+    fingerprints.put(logicalPath, fingerprintedPath);
+    return fingerprintedPath;
+  }
+
+  /**
+   * Copy an image or a CSS file. The copy is skipped if the same content was already copied to outFile during this
+   * publish run (or, for a fingerprinted asset, if outFile exists: its name depends on the content). The asset is given
+   * to the sinks and recorded in the page. When different files are copied to the same target, the file of the page with
+   * the highest index is kept (as in a sequential run).
+   */
+  private static void copyAsset(PublishContext context, PublishedPage page, File inFile, File outFile, String targetPath) throws IOException {
+    long start = System.nanoTime();
+    AssetStore assetStore = context.getAssetStore();
+    if (context.getParam().isWriteOutFolder()) {
+      boolean copied = (context.getFingerprints() == null || !outFile.isFile()) && assetStore.copy(page.getIndex(), inFile, outFile);
+      context.getStatistics().increment(copied ? Counter.ASSETS_COPIED : Counter.ASSETS_SKIPPED, 1);
+    }
+    for (PublishSink sink : context.getSinks()) {
+      sink.putAsset(page.getIndex(), targetPath, inFile);
+    }
+    if (context.getManifest() != null) {
+      page.addAsset(targetPath, inFile, assetStore.hash(inFile).toString());
+    }
+    long nanos = System.nanoTime() - start;
+    page.addAssetTime(nanos);
+    context.getStatistics().addTime(Stage.ASSETS, nanos);
+  }
+
   /**
    * @param inFile
    * @return
@@ -298,7 +602,17 @@ public class PublishUtility {
    *          JSoup document (type is {@link org.jsoup.nodes.Document})
    */
   public static void fixListingLink(Document doc) {
-    fixBlockLink(doc, "listingblock", listingPattern);
+    DomFix fix = createListingLinkFix(new XrefIndex(doc));
+    for (Element link : doc.getElementsByTag("a")) {
+      applyFix(fix, link);
+    }
+  }
+
+  /**
+   * @return the fix for the "a" elements, see {@link #fixListingLink(Document)}
+   */
+  static DomFix createListingLinkFix(XrefIndex index) {
+    return createBlockLinkFix(index, "listingblock", listingPattern);
   }
 
   static private Pattern figurePattern = Pattern.compile("(Figure [0-9]+)\\.");
@@ -311,41 +625,62 @@ public class PublishUtility {
    *          JSoup document (type is {@link org.jsoup.nodes.Document})
    */
   public static void fixFigureLink(Document doc) {
-    Elements elements = doc.getElementsByTag("a");
-    for (Element link : elements) {
-      String href = link.attr("href");
-      if (href != null && href.startsWith("#")) {
-        String id = href.substring(1);
-        Element idElement = doc.getElementById(id);
-        boolean fixedText = false;
-        if (idElement != null && "imageblock".equals(idElement.attr("class"))) {
-          fixedText = fixLink(link, idElement, figurePattern);
+    DomFix fix = createFigureLinkFix(new XrefIndex(doc));
+    for (Element link : doc.getElementsByTag("a")) {
+      applyFix(fix, link);
+    }
+  }
+
+  /**
+   * @return the fix for the "a" elements, see {@link #fixFigureLink(Document)}
+   */
+  static DomFix createFigureLinkFix(final XrefIndex index) {
+    return new DomFix() {
+      @Override
+      public void apply(Element link) {
+        String href = link.attr("href");
+        if (href != null && href.startsWith("#")) {
+          String id = href.substring(1);
+          String key = "imageblock#" + id;
+          if (!index.hasLabel(key)) {
+            index.putLabel(key, findFigureLabel(index, id));
+          }
+          setLinkText(link, index.getLabel(key));
         }
-        //Support for the multiple Images in one figure workaround (see Issue 1287)
-        if (!fixedText && idElement != null) {
-          Element container = idElement.parent();
-          boolean checkNext = false;
-          for (int i = 0; i < container.childNodeSize(); i++) {
-            Node childNode = container.childNode(i);
-            if (id.equals(childNode.attr("id")) && classAttributeContains(childNode, "imageblock")) {
-              checkNext = true;
-            }
-            if (!fixedText && checkNext) {
-              if ("imageblock".equals(childNode.attr("class")) && childNode instanceof Element) {
-                fixedText = fixLink(link, (Element) childNode, figurePattern);
-              }
-              else if (!(childNode instanceof Element)) {
-                //do nothing.
-              }
-              else {
-                //found an other element that does not correspond.
-                checkNext = false;
-              }
-            }
+      }
+    };
+  }
+
+  private static String findFigureLabel(XrefIndex index, String id) {
+    Element idElement = index.getElementById(id);
+    String label = null;
+    if (idElement != null && "imageblock".equals(idElement.attr("class"))) {
+      label = findLabel(index, idElement, figurePattern);
+    }
+    //Support for the multiple Images in one figure workaround (see Issue 1287)
+    if (label == null && idElement != null) {
+      Element container = idElement.parent();
+      boolean checkNext = false;
+      for (int i = 0; i < container.childNodeSize(); i++) {
+        Node childNode = container.childNode(i);
+        if (id.equals(childNode.attr("id")) && classAttributeContains(childNode, "imageblock")) {
+          checkNext = true;
+        }
+        if (label == null && checkNext) {
+          if ("imageblock".equals(childNode.attr("class")) && childNode instanceof Element) {
+            label = findLabel(index, (Element) childNode, figurePattern);
+          }
+          else if (!(childNode instanceof Element)) {
+            //do nothing.
+          }
+          else {
+            //found an other element that does not correspond.
+            checkNext = false;
           }
         }
       }
     }
+    return label;
   }
 
   static private Pattern tablePattern = Pattern.compile("(Table [0-9]+)\\.");
@@ -358,20 +693,50 @@ public class PublishUtility {
    *          JSoup document (type is {@link org.jsoup.nodes.Document})
    */
   public static void fixTableLink(Document doc) {
-    fixBlockLink(doc, "tableblock", tablePattern);
-  }
-
-  private static void fixBlockLink(Document doc, String classAttrValue, Pattern pattern) {
-    Elements elements = doc.getElementsByTag("a");
-    for (Element link : elements) {
-      String href = link.attr("href");
-      if (href != null && href.startsWith("#")) {
-        String id = href.substring(1);
-        Element idElement = doc.getElementById(id);
-        if (idElement != null && classAttributeContains(idElement, classAttrValue)) {
-          fixLink(link, idElement, pattern);
+    DomFix fix = createTableLinkFix(new XrefIndex(doc));
+    for (Element link : doc.getElementsByTag("a")) {
+      applyFix(fix, link);
+    }
+  }
+
+  /**
+   * @return the fix for the "a" elements, see {@link #fixTableLink(Document)}
+   */
+  static DomFix createTableLinkFix(XrefIndex index) {
+    return createBlockLinkFix(index, "tableblock", tablePattern);
+  }
+
+  private static DomFix createBlockLinkFix(final XrefIndex index, final String classAttrValue, final Pattern pattern) {
+    return new DomFix() {
+      @Override
+      public void apply(Element link) {
+        String href = link.attr("href");
+        if (href != null && href.startsWith("#")) {
+          String id = href.substring(1);
+          String key = classAttrValue + "#" + id;
+          if (!index.hasLabel(key)) {
+            Element idElement = index.getElementById(id);
+            String label = null;
+            if (idElement != null && classAttributeContains(idElement, classAttrValue)) {
+              label = findLabel(index, idElement, pattern);
+            }
+            index.putLabel(key, label);
+          }
+          setLinkText(link, index.getLabel(key));
         }
       }
+    };
+  }
+
+  /**
+   * Apply a fix that does not perform any I/O operation.
+   */
+  private static void applyFix(DomFix fix, Element element) {
+    try {
+      fix.apply(element);
+    }
+    catch (IOException e) {
+      throw new IllegalStateException("Unexpected IOException", e);
     }
   }
 
@@ -380,57 +745,109 @@ public class PublishUtility {
     return classAttr != null && classAttr.contains(value);
   }
 
-  private static boolean fixLink(Element link, Element element, Pattern pattern) {
-    Element titleTag = findTitleTag(element);
-    if (titleTag != null) {
-      Matcher matcher = pattern.matcher(titleTag.text());
+  /**
+   * @return the label ("Listing 1", "Figure 2"...) found in the title of the element or null.
+   */
+  private static String findLabel(XrefIndex index, Element element, Pattern pattern) {
+    String title = index.getTitle(element);
+    if (title != null) {
+      Matcher matcher = pattern.matcher(title);
       if (matcher.find()) {
-        link.text(matcher.group(1));
-        return true;
+        return matcher.group(1);
       }
     }
-    return false;
+    return null;
+  }
+
+  private static void setLinkText(Element link, String label) {
+    if (label != null) {
+      link.text(label);
+    }
   }
 
   static void fixExternalLinks(Document doc) {
-    Elements elements = doc.getElementsByTag("a");
-    for (Element link : elements) {
-      String href = link.attr("href");
-      if (href != null && (href.startsWith("http://") || href.startsWith("https://") || href.startsWith("ftp://"))) {
-        link.attr("target", "_blank");
-      }
+    DomFix fix = createExternalLinkFix();
+    for (Element link : doc.getElementsByTag("a")) {
+      applyFix(fix, link);
     }
   }
 
-  static String trimTrailingWhitespaces(String content) {
-    return content.replaceAll("(?m)\\s+$", "");
+  /**
+   * @return the fix for the "a" elements, see {@link #fixExternalLinks(Document)}
+   */
+  static DomFix createExternalLinkFix() {
+    return new DomFix() {
+      @Override
+      public void apply(Element link) {
+        if (ExternalLinkPatcher.isExternal(link.attr("href"))) {
+          link.attr("target", "_blank");
+        }
+      }
+    };
+  }
+
+  /**
+   * Serialize the document directly in the file (encoded as UTF-8). For a pretty printed document, the content is the
+   * same as <code>trimTrailingWhitespaces(doc.toString())</code>, without building the whole page as String. Other
+   * documents are written as they are (the whitespaces are significant).
+   */
+  static void writeDocument(Document doc, File outFile) throws IOException {
+    writeDocument(doc, outFile, false);
+  }
+
+  /**
+   * @param minified
+   *          if true, the document (processed by {@link HtmlMinifier#minify(Document)}) is written without the optional
+   *          end tags.
+   */
+  static void writeDocument(Document doc, File outFile, boolean minified) throws IOException {
+    writeDocument(doc, new FileOutputStream(outFile), minified);
   }
 
-  private static Element findTitleTag(Element element) {
-    Elements elements;
-    elements = element.getElementsByTag("div");
-    for (Element e : elements) {
-      if ("title".equals(e.attr("class"))) {
-        return e;
+  /**
+   * Serialize the document in the stream (encoded as UTF-8), see {@link #writeDocument(Document, File, boolean)}. The
+   * stream is closed.
+   */
+  static void writeDocument(Document doc, OutputStream out, boolean minified) throws IOException {
+    boolean prettyPrint = doc.outputSettings().prettyPrint() && !minified;
+    Writer bufferedWriter = new BufferedWriter(new OutputStreamWriter(out, Charsets.UTF_8));
+    try (Writer writer = prettyPrint ? new TrimTrailingWhitespacesWriter(bufferedWriter, true) : bufferedWriter) {
+      if (minified) {
+        HtmlMinifier.write(doc, writer);
+      }
+      else {
+        doc.html(writer);
       }
     }
-    elements = element.getElementsByTag("caption");
-    for (Element e : elements) {
-      if ("title".equals(e.attr("class"))) {
-        return e;
+    catch (SerializationException e) {
+      //jsoup wraps the IOException of the writer:
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
       }
+      throw e;
     }
-    return null;
+  }
+
+  static String trimTrailingWhitespaces(String content) {
+    StringWriter result = new StringWriter(content.length());
+    try (Writer writer = new TrimTrailingWhitespacesWriter(result, false)) {
+      writer.write(content);
+    }
+    catch (IOException e) {
+      throw new IllegalStateException("Could not trim content", e);
+    }
+    return result.toString();
   }
 
   /**
    * @param doc
    * @param inFile
    * @param pages
-   * @param root
-   * @throws IOException
+   *          title index of the pages list (titles of the neighbour pages are taken from there)
+   * @param inlineImages
+   *          used to inline the navigation images, can be null
    */
-  private static void fixNavigation(Document doc, File inFile, List<File> pages, RootItem root) throws IOException {
+  private static void fixNavigation(Document doc, File inFile, PageTitleIndex pages, InlineImages inlineImages) throws IOException {
     if (pages != null) {
       //Create the navigation section:
       String nextHref = null;
@@ -441,34 +858,99 @@ public class PublishUtility {
       int i = pages.indexOf(inFile);
 
       if (i < pages.size() - 1) {
-        nextHref = pages.get(i + 1).getName();
-        nextTitle = readAndFindFirstHeader(pages.get(i + 1));
+        nextHref = pages.getHref(i + 1);
+        nextTitle = pages.getTitle(i + 1);
       }
       if (i > 0 && pages.size() > 0) {
-        prevHref = pages.get(i - 1).getName();
-        prevTitle = readAndFindFirstHeader(pages.get(i - 1));
+        prevHref = pages.getHref(i - 1);
+        prevTitle = pages.getTitle(i - 1);
       }
       String baseUri = doc.baseUri();
+      RootItem root = pages.createRootItem();
 
       String title = findFirstHeader(doc);
-      Element tableTop = createNavigationTable(root, title, true, nextHref, prevHref, nextTitle, prevTitle, baseUri);
+      Element tableTop = createNavigationTable(root, title, true, nextHref, prevHref, nextTitle, prevTitle, baseUri, inlineImages);
       doc.body().insertChildren(0, Collections.singleton(tableTop));
-      Element tableBottom = createNavigationTable(root, title, false, nextHref, prevHref, nextTitle, prevTitle, baseUri);
+      Element tableBottom = createNavigationTable(root, title, false, nextHref, prevHref, nextTitle, prevTitle, baseUri, inlineImages);
       insertBeforeId(doc.body(), "footer", tableBottom);
     }
   }
 
+  private static final int HEADER_SCAN_CHUNK = 8 * 1024;
+
   /**
-   * Read the file and apply {@link #findFirstHeader(Document)}
+   * Read the file and apply {@link #findFirstHeader(Document)}.
+   * Only the beginning of the file (up to the first closing header tag) is parsed. The complete file is parsed only if
+   * no header is found in this part.
    *
    * @param file
    * @return title or null if not found
    * @throws IOException
    */
   public static String readAndFindFirstHeader(File file) throws IOException {
-    String html = Files.toString(file, Charsets.ISO_8859_1);
-    Document doc = Jsoup.parse(html);
-    return findFirstHeader(doc);
+    return readAndFindFirstHeader(file, null);
+  }
+
+  /**
+   * Find the first header of the page. The file is read as bytes until the end tag of a header is found: only this
+   * prefix is decoded and parsed. If no header is found in the prefix, the whole page is parsed.
+   *
+   * @param charsetName
+   *          charset of the page, if null it is detected from the BOM or the meta tag (default is UTF-8).
+   */
+  public static String readAndFindFirstHeader(File file, String charsetName) throws IOException {
+    byte[] buffer = new byte[HEADER_SCAN_CHUNK];
+    int length = 0;
+    try (InputStream in = new FileInputStream(file)) {
+      int read;
+      while ((read = in.read(buffer, length, buffer.length - length)) != -1) {
+        //a header end tag cut by the previous chunk is found again:
+        int from = Math.max(0, length - 8);
+        length += read;
+        int end = findHeaderEnd(buffer, from, length);
+        if (end >= 0) {
+          String title = findFirstHeader(Jsoup.parse(new ByteArrayInputStream(buffer, 0, end), charsetName, ""));
+          if (title != null) {
+            return title;
+          }
+          //the tag was not an header (in a comment, in a script...), the prefix is not enough:
+          break;
+        }
+        if (length == buffer.length) {
+          buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+      }
+    }
+    return findFirstHeader(parse(file, charsetName));
+  }
+
+  /**
+   * @return the position after the first header end tag ("&lt;/h1&gt;" to "&lt;/h6&gt;") found between from and length,
+   *         -1 if there is none. The bytes are expected in an ASCII compatible charset.
+   */
+  static int findHeaderEnd(byte[] bytes, int from, int length) {
+    for (int i = from; i + 3 < length; i++) {
+      if (bytes[i] == '<' && bytes[i + 1] == '/' && (bytes[i + 2] == 'h' || bytes[i + 2] == 'H') && bytes[i + 3] >= '1' && bytes[i + 3] <= '6') {
+        int j = i + 4;
+        while (j < length && (bytes[j] == ' ' || bytes[j] == '\t' || bytes[j] == '\n' || bytes[j] == '\r' || bytes[j] == '\f' || bytes[j] == 0x0B)) {
+          j++;
+        }
+        if (j < length && bytes[j] == '>') {
+          return j + 1;
+        }
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Parse the page directly from the file: the bytes are decoded by JSoup, no additional copy of the page is kept.
+   *
+   * @param charsetName
+   *          charset of the page, if null it is detected from the BOM or the meta tag (default is UTF-8).
+   */
+  static Document parse(File file, String charsetName) throws IOException {
+    return Jsoup.parse(file, charsetName, "");
   }
 
   /**
@@ -509,28 +991,37 @@ public class PublishUtility {
     throw new IllegalStateException("ChildNode with id '" + id + "' not found");
   }
 
-  private static Element createNavigationTable(RootItem root, String title, boolean isTop, String nextHref, String prevHref, String nextTitle, String prevTitle, String baseUri) {
+  private static Element createNavigationTable(RootItem root, String title, boolean isTop, String nextHref, String prevHref, String nextTitle, String prevTitle, String baseUri, InlineImages inlineImages) throws IOException {
     Element table = new Element(Tag.valueOf("table"), baseUri);
     table.attr("border", "0");
     table.attr("class", "navigation");
     table.attr("style", "width: 100%;");
     table.attr("summary", "navigation");
 
-    Element prevLinkElement = createLinkElement(prevTitle, prevHref, "Previous", IMAGE_PREV, baseUri);
-    Element nextLinkElement = createLinkElement(nextTitle, nextHref, "Next", IMAGE_NEXT, baseUri);
+    Element prevLinkElement = createLinkElement(prevTitle, prevHref, "Previous", navImageSrc(inlineImages, IMAGE_PREV), baseUri);
+    Element nextLinkElement = createLinkElement(nextTitle, nextHref, "Next", navImageSrc(inlineImages, IMAGE_NEXT), baseUri);
 
     Element homeLinkElement;
     if (isTop) {
       homeLinkElement = null;
     }
     else {
-      homeLinkElement = createLinkElement(root.getTitle(), root.getFileName(), root.getTitle(), IMAGE_HOME, table.baseUri());
+      homeLinkElement = createLinkElement(root.getTitle(), root.getFileName(), root.getTitle(), navImageSrc(inlineImages, IMAGE_HOME), table.baseUri());
     }
     appendNavigationTableTR(table, prevLinkElement, homeLinkElement, nextLinkElement);
     appendNavigationTableTR(table, prevTitle, null, nextTitle);
     return table;
   }
 
+  /**
+   * @return the src of a navigation image: its data URI if it is inlined, its name otherwise (moved to the images
+   *         folder with the other images).
+   */
+  private static String navImageSrc(InlineImages inlineImages, String image) throws IOException {
+    String dataUri = navImageDataUri(inlineImages, image);
+    return dataUri == null ? image : dataUri;
+  }
+
   /**
    * @param title
    * @param href
@@ -584,106 +1075,47 @@ public class PublishUtility {
     }
   }
 
+  /**
+   * Compute the actions synchronizing the HTML files (and their pdf and zip companion files) of the output folder with
+   * the input folder. The folders are walked concurrently (one thread per processor), the order of the actions is
+   * deterministic.
+   */
   public static List<FileAction> computeActions(File inputRootFolder, File outputRootFolder, boolean deleteNonExistingFolders) throws IOException {
-    List<FileAction> result = new ArrayList<>();
-    List<String> inputHtmlFiles = childHtmlFileNames(inputRootFolder);
-    for (String fileName : inputHtmlFiles) {
-      File inputFile = new File(inputRootFolder, fileName);
-      File outputFile = new File(outputRootFolder, fileName);
-      if (!outputFile.exists()) {
-        addCopyActions(result, inputFile, outputFile);
-      }
-      else {
-        if (hasModifications(inputFile, outputFile)) {
-          addCopyActions(result, inputFile, outputFile);
-        }
-      }
-    }
-
-    List<String> outputHtmlFiles = childHtmlFileNames(outputRootFolder);
-    for (String fileName : outputHtmlFiles) {
-      if (!inputHtmlFiles.contains(fileName)) {
-        addRemoveActions(result, new File(outputRootFolder, fileName));
-      }
-    }
-
-    //recursive call for child folders:
-    List<File> inputSubFolders = childDirectories(inputRootFolder);
-    List<String> inputSubFolderNames = new ArrayList<>();
-    for (File f : inputSubFolders) {
-      inputSubFolderNames.add(f.getName());
-      result.addAll(computeActions(f, new File(outputRootFolder, f.getName()), deleteNonExistingFolders));
-    }
-
-    if (deleteNonExistingFolders) {
-      List<File> outSubFolders = childDirectories(outputRootFolder);
-      for (File outputSubFolder : outSubFolders) {
-        if (!inputSubFolderNames.contains(outputSubFolder.getName())) {
-          result.add(FileAction.remove(outputSubFolder));
-        }
-      }
-    }
-    return result;
+    return computeActions(inputRootFolder, outputRootFolder, deleteNonExistingFolders, Runtime.getRuntime().availableProcessors());
   }
 
-  private static List<File> childDirectories(File folder) {
-    File[] list = folder.listFiles(DIRECTORY_FILEFILTER);
-    if (list == null) {
-      return Collections.emptyList();
-    }
-    return Arrays.asList(list);
+  /**
+   * @param threads
+   *          number of threads walking the folders and comparing the files.
+   * @see #computeActions(File, File, boolean)
+   */
+  public static List<FileAction> computeActions(File inputRootFolder, File outputRootFolder, boolean deleteNonExistingFolders, int threads) throws IOException {
+    return computeActions(inputRootFolder, outputRootFolder, deleteNonExistingFolders, threads, null);
   }
 
-  private static List<String> childHtmlFileNames(File folder) {
-    String[] list = folder.list(HTML_FILENAME_FILTER);
-    if (list == null) {
-      return Collections.emptyList();
-    }
-    return Arrays.asList(list);
+  /**
+   * @param index
+   *          if not null, the input files are compared with the digests of the index instead of the output files.
+   * @see #computeActions(File, File, boolean)
+   */
+  public static List<FileAction> computeActions(File inputRootFolder, File outputRootFolder, boolean deleteNonExistingFolders, int threads, SyncIndex index) throws IOException {
+    return FolderSyncWalker.computeActions(inputRootFolder, outputRootFolder, deleteNonExistingFolders, threads, index);
   }
 
-  private static void addCopyActions(List<FileAction> list, File inputFile, File outputFile) {
-    list.add(FileAction.copy(inputFile, outputFile));
-    File inputPdfFile = companionFile(inputFile, "pdf");
-    if (inputPdfFile.exists()) {
-      File outputPdfFile = companionFile(outputFile, "pdf");
-      list.add(FileAction.copy(inputPdfFile, outputPdfFile));
-    }
-    File inputZipFile = companionFile(inputFile, "zip");
-    if (inputZipFile.exists()) {
-      File outputZipFile = companionFile(outputFile, "zip");
-      list.add(FileAction.copy(inputZipFile, outputZipFile));
-    }
+  public static void doActions(List<FileAction> actions) throws IOException {
+    doActions(actions, CopyStrategy.COPY);
   }
 
-  private static void addRemoveActions(List<FileAction> list, File outputFile) {
-    list.add(FileAction.remove(outputFile));
-    File outputPdfFile = companionFile(outputFile, "pdf");
-    if (outputPdfFile.exists()) {
-      list.add(FileAction.remove(outputPdfFile));
-    }
-    File outputZipFile = companionFile(outputFile, "zip");
-    if (outputZipFile.exists()) {
-      list.add(FileAction.remove(outputZipFile));
-    }
-  }
-
-  public static void doActions(List<FileAction> actions) throws IOException {
-    if (actions != null) {
-      for (FileAction a : actions) {
-        a.doAction();
-      }
-    }
+  public static void doActions(List<FileAction> actions, CopyStrategy copyStrategy) throws IOException {
+    doActions(actions, copyStrategy, Runtime.getRuntime().availableProcessors());
   }
 
   /**
-   * @param file
-   * @param ext
-   * @return
+   * Executes the actions with a {@link FileActionExecutor}: actions on different files run concurrently, actions on the
+   * same file or folder keep their order.
    */
-  private static File companionFile(File file, String ext) {
-    String name = Files.getNameWithoutExtension(file.getName()) + "." + ext;
-    return new File(file.getParent(), name);
+  public static void doActions(List<FileAction> actions, CopyStrategy copyStrategy, int threads) throws IOException {
+    new FileActionExecutor(threads, copyStrategy).execute(actions);
   }
 
 //  private static void copyDocEntry(DocEntry input, File outputFile) throws IOException {
@@ -704,27 +1136,66 @@ public class PublishUtility {
 //  }
 
   public static void copyRec(File sourceLocation, File targetLocation) throws IOException {
+    copyRec(sourceLocation, targetLocation, CopyStrategy.COPY);
+  }
+
+  /**
+   * Synchronizes the target with the source: the files with the same content as their source are not copied again
+   * (they keep their gzip sidecar, see {@link PrecompressedFiles}) and the files that are not in the source are deleted.
+   */
+  public static void copyRec(File sourceLocation, File targetLocation, CopyStrategy copyStrategy) throws IOException {
     if (sourceLocation.isDirectory()) {
+      if (targetLocation.isFile()) {
+        java.nio.file.Files.delete(targetLocation.toPath());
+        PrecompressedFiles.deleteSidecar(targetLocation);
+      }
       if (!targetLocation.exists()) {
         targetLocation.mkdir();
       }
 
       List<String> sourceChildren = Arrays.asList(sourceLocation.list());
       for (String child : sourceChildren) {
-        copyRec(new File(sourceLocation, child), new File(targetLocation, child));
+        copyRec(new File(sourceLocation, child), new File(targetLocation, child), copyStrategy);
       }
-      for (String child : targetLocation.list()) {
-        if (!sourceChildren.contains(child)) {
-          File file = new File(targetLocation, child);
-          if (!file.isDirectory()) {
-            file.delete();
-          }
+      Set<String> sourceChildrenSet = new HashSet<>(sourceChildren);
+      for (String child : elementsNotIn(Arrays.asList(targetLocation.list()), sourceChildrenSet)) {
+        File file = new File(targetLocation, child);
+        if (file.isDirectory()) {
+          deleteRec(file);
+        }
+        else if (!PrecompressedFiles.isSidecar(child) || !sourceChildrenSet.contains(PrecompressedFiles.sourceName(child))) {
+          file.delete();
         }
       }
     }
-    else {
-      Files.copy(sourceLocation, targetLocation);
+    else if (targetLocation.isDirectory()) {
+      deleteRec(targetLocation);
+      copyStrategy.copy(sourceLocation, targetLocation);
     }
+    else if (!targetLocation.isFile() || !Files.equal(sourceLocation, targetLocation)) {
+      copyStrategy.copy(sourceLocation, targetLocation);
+    }
+  }
+
+  /**
+   * @return the elements of items that are not contained in reference, in the order of items. The reference elements
+   *         are put in a hash set: the cost is linear in the size of both collections.
+   */
+  static <T> List<T> elementsNotIn(Collection<T> items, Collection<T> reference) {
+    return elementsNotIn(items, new HashSet<>(reference));
+  }
+
+  /**
+   * @return the elements of items that are not contained in reference, in the order of items (the set is used as is).
+   */
+  static <T> List<T> elementsNotIn(Collection<T> items, Set<T> reference) {
+    List<T> result = new ArrayList<>();
+    for (T item : items) {
+      if (!reference.contains(item)) {
+        result.add(item);
+      }
+    }
+    return result;
   }
 
   public static void deleteFilesRec(File targetLocation) throws IOException {
@@ -740,11 +1211,30 @@ public class PublishUtility {
     }
   }
 
-  public static boolean hasModifications(File file1, File file2) throws IOException {
-    List<String> lines1 = Files.readLines(file1, Charsets.UTF_8);
-    List<String> lines2 = Files.readLines(file2, Charsets.UTF_8);
+  /**
+   * Deletes the folder with its files and sub folders (symbolic links are deleted, not followed).
+   */
+  static void deleteRec(File folder) throws IOException {
+    java.nio.file.Files.walkFileTree(folder.toPath(), new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        java.nio.file.Files.delete(file);
+        return FileVisitResult.CONTINUE;
+      }
 
-    return hasModifications(lines1, lines2);
+      @Override
+      public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+        if (exc != null) {
+          throw exc;
+        }
+        java.nio.file.Files.delete(dir);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  public static boolean hasModifications(File file1, File file2) throws IOException {
+    return new HtmlContentComparator().hasModifications(file1, file2);
   }
 
   public static boolean hasModifications(List<String> lines1, List<String> lines2) {
@@ -763,9 +1253,7 @@ public class PublishUtility {
   }
 
   static boolean hasModifications(String line1, String line2) {
-    String trim1 = line1.trim();
-    String trim2 = line2.trim();
-    if (trim1.matches("<br /> Last updated .+") && trim2.matches("<br /> Last updated .+")) {
+    if (HtmlContentComparator.isVolatile(line1) && HtmlContentComparator.isVolatile(line2)) {
       return false;
     }
     return !line1.equals(line2);
@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Jeremie Bresson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jeremie Bresson - initial API and implementation
+ ******************************************************************************/
+package com.bsiag.htmltools.internal;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.bsiag.htmltools.internal.PublishManifest.Asset;
+
+/**
+ * What is collected about a page while it is published. Used by a single thread.
+ */
+class PublishedPage {
+
+  private final int index;
+  private final File inFile;
+  private final List<Asset> assets = new ArrayList<>();
+  private long assetNanos;
+
+  PublishedPage(File inFile) {
+    this(0, inFile);
+  }
+
+  /**
+   * @param index
+   *          position of the page in the list of published pages.
+   */
+  PublishedPage(int index, File inFile) {
+    this.index = index;
+    this.inFile = inFile;
+  }
+
+  int getIndex() {
+    return index;
+  }
+
+  File getInFile() {
+    return inFile;
+  }
+
+  /**
+   * @param targetPath
+   *          path of the asset, relative to the output folder
+   * @param source
+   *          file copied to the target path
+   * @param sourceHash
+   *          hash of the source file content
+   */
+  void addAsset(String targetPath, File source, String sourceHash) {
+    assets.add(new Asset(targetPath, source, sourceHash));
+  }
+
+  List<Asset> getAssets() {
+    return Collections.unmodifiableList(assets);
+  }
+
+  /**
+   * @param nanos
+   *          time spent copying an asset of the page.
+   */
+  void addAssetTime(long nanos) {
+    assetNanos += nanos;
+  }
+
+  long getAssetNanos() {
+    return assetNanos;
+  }
+}
@@ -0,0 +1,254 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Jeremie Bresson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jeremie Bresson - initial API and implementation
+ ******************************************************************************/
+package com.bsiag.htmltools.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.hash.HashCode;
+
+/**
+ * Persistent state of an output folder synchronized by the 'copydocs' goal.
+ * <p>
+ * For each HTML file of the output folder, the index contains its relative path, its size, its modification time and
+ * its normalized digest (see {@link HtmlContentComparator}). When the index is used by
+ * {@link PublishUtility#computeActions(File, File, boolean, int, SyncIndex)}, an input file is compared with the digest
+ * stored in the index: the output files are not read. An entry is only used if the size and the modification time of
+ * the output file (read while listing the output folder) match it, otherwise the files are compared by content. To
+ * rescan the complete output folder (when it might have been modified by another tool), call {@link #verify()} before
+ * computing the actions.
+ * <p>
+ * The index is stored in a binary file next to the output folder (see {@link #defaultIndexFile(File)}). The methods of
+ * this class are thread-safe, except {@link #verify()}, {@link #update(List)} and {@link #save()}.
+ */
+public class SyncIndex {
+  private static final int MAGIC = 0x48544958; // "HTIX"
+  private static final int VERSION = 1;
+
+  private final File indexFile;
+  private final File outputFolder;
+  private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+  /**
+   * Digests of the input files computed during this run (read once for the comparison and the update).
+   */
+  private final HtmlContentComparator comparator = new HtmlContentComparator();
+
+  private SyncIndex(File indexFile, File outputFolder) {
+    this.indexFile = indexFile;
+    this.outputFolder = outputFolder;
+  }
+
+  /**
+   * @return the file "&lt;outputFolder&gt;.htmltools-index", in the parent folder of the output folder.
+   */
+  public static File defaultIndexFile(File outputFolder) {
+    File folder = outputFolder.getAbsoluteFile();
+    return new File(folder.getParentFile(), folder.getName() + ".htmltools-index");
+  }
+
+  /**
+   * Reads the index. If the file does not exist or can not be read (other format version, truncated file), the index
+   * is empty: all the output files are read once and the index is rebuilt.
+   */
+  public static SyncIndex load(File indexFile, File outputFolder) {
+    SyncIndex index = new SyncIndex(indexFile, outputFolder);
+    if (indexFile.isFile()) {
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+        if (in.readInt() == MAGIC && in.readInt() == VERSION) {
+          int count = in.readInt();
+          for (int i = 0; i < count; i++) {
+            String path = in.readUTF();
+            long size = in.readLong();
+            long modified = in.readLong();
+            byte[] digest = new byte[in.readUnsignedByte()];
+            in.readFully(digest);
+            index.entries.put(path, new Entry(size, modified, HashCode.fromBytes(digest)));
+          }
+        }
+      }
+      catch (IOException e) {
+        index.entries.clear();
+      }
+    }
+    return index;
+  }
+
+  public File getIndexFile() {
+    return indexFile;
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * Checks the size and the modification time of the output files. The entries of the files modified outside of the
+   * tool are computed again, the entries of the deleted files are removed and the files missing in the index are
+   * added.
+   *
+   * @return the number of entries that were added, updated or removed.
+   */
+  public int verify() throws IOException {
+    Set<String> found = new HashSet<>();
+    int changes = scan(outputFolder, found);
+    for (String path : PublishUtility.elementsNotIn(new ArrayList<>(entries.keySet()), found)) {
+      entries.remove(path);
+      changes++;
+    }
+    return changes;
+  }
+
+  /**
+   * @param outputSize
+   *          size of the output file, read while listing the output folder.
+   * @param outputModified
+   *          modification time of the output file (in milliseconds), read while listing the output folder.
+   * @return true if the input file is different from the output file (ignoring the volatile lines). If the entry of the
+   *         output file matches its size and modification time, only the input file is read. Otherwise (no entry, or
+   *         output file modified outside of the tool) the entry is dropped and the files are compared by content.
+   */
+  boolean hasModifications(File inputFile, File outputFile, long outputSize, long outputModified) throws IOException {
+    String path = relativePath(outputFile);
+    Entry entry = entries.get(path);
+    if (entry != null && entry.size == outputSize && entry.modified == outputModified) {
+      return !comparator.digest(inputFile).equals(entry.digest);
+    }
+    entries.remove(path);
+    if (comparator.hasModifications(inputFile, outputFile)) {
+      //the output file is replaced, its entry is added by update(List):
+      return true;
+    }
+    //the digests of equal files are cached by the comparator:
+    entries.put(path, newEntry(outputFile));
+    return false;
+  }
+
+  /**
+   * Updates the index after the execution of the actions.
+   */
+  public void update(List<FileAction> actions) throws IOException {
+    for (FileAction action : actions) {
+      File file = action.getFile();
+      if (action.isCreateFile() && file.isFile()) {
+        if (FolderSyncWalker.isHtmlFileName(file.getName())) {
+          //the output file is a copy of the input file, they have the same digest:
+          HashCode digest = comparator.digest(action.getFromFile());
+          entries.put(relativePath(file), new Entry(file.length(), lastModified(file), digest));
+        }
+      }
+      else {
+        removeEntries(relativePath(file));
+        if (file.isDirectory()) {
+          scan(file, new HashSet<String>());
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes the index file (the entries are sorted by path).
+   */
+  public void save() throws IOException {
+    Map<String, Entry> sorted = new TreeMap<>(entries);
+    File tmpFile = new File(indexFile.getPath() + ".tmp");
+    com.google.common.io.Files.createParentDirs(tmpFile);
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(sorted.size());
+      for (Map.Entry<String, Entry> e : sorted.entrySet()) {
+        out.writeUTF(e.getKey());
+        out.writeLong(e.getValue().size);
+        out.writeLong(e.getValue().modified);
+        byte[] digest = e.getValue().digest.asBytes();
+        out.writeByte(digest.length);
+        out.write(digest);
+      }
+    }
+    java.nio.file.Files.move(tmpFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private int scan(File folder, Set<String> found) throws IOException {
+    int changes = 0;
+    File[] files = folder.listFiles();
+    if (files == null) {
+      return changes;
+    }
+    for (File file : files) {
+      if (file.isDirectory()) {
+        changes += scan(file, found);
+      }
+      else if (FolderSyncWalker.isHtmlFileName(file.getName())) {
+        String path = relativePath(file);
+        found.add(path);
+        Entry entry = entries.get(path);
+        if (entry == null || entry.size != file.length() || entry.modified != lastModified(file)) {
+          entries.put(path, newEntry(file));
+          changes++;
+        }
+      }
+    }
+    return changes;
+  }
+
+  private void removeEntries(String path) {
+    String prefix = path + "/";
+    for (String key : entries.keySet()) {
+      if (key.equals(path) || key.startsWith(prefix)) {
+        entries.remove(key);
+      }
+    }
+  }
+
+  private Entry newEntry(File file) throws IOException {
+    long size = file.length();
+    long modified = lastModified(file);
+    return new Entry(size, modified, comparator.digest(file));
+  }
+
+  /**
+   * @return the modification time with the precision of the attributes read by {@link FolderSyncWalker}.
+   */
+  private static long lastModified(File file) throws IOException {
+    return java.nio.file.Files.getLastModifiedTime(file.toPath()).toMillis();
+  }
+
+  String relativePath(File file) {
+    return outputFolder.toPath().toAbsolutePath().relativize(file.toPath().toAbsolutePath()).toString().replace(File.separatorChar, '/');
+  }
+
+  private static class Entry {
+    private final long size;
+    private final long modified;
+    private final HashCode digest;
+
+    Entry(long size, long modified, HashCode digest) {
+      this.size = size;
+      this.modified = modified;
+      this.digest = digest;
+    }
+  }
+}
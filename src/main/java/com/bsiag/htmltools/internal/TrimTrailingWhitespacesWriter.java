@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Jeremie Bresson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jeremie Bresson - initial API and implementation
+ ******************************************************************************/
+package com.bsiag.htmltools.internal;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writer removing the trailing whitespaces of each line while the content is written. The result is the same as
+ * <code>content.replaceAll("(?m)\\s+$", "")</code> (this also removes the empty lines), without keeping the complete
+ * content in memory: only a run of whitespaces is buffered until the next character is known.
+ * <p>
+ * With trim=true, the characters removed by {@link String#trim()} are also removed at the beginning and at the end of
+ * the content.
+ */
+public class TrimTrailingWhitespacesWriter extends FilterWriter {
+
+  private final boolean trim;
+  private final StringBuilder pending = new StringBuilder();
+  private boolean started;
+
+  public TrimTrailingWhitespacesWriter(Writer out, boolean trim) {
+    super(out);
+    this.trim = trim;
+  }
+
+  @Override
+  public void write(int c) throws IOException {
+    writeChar((char) c);
+  }
+
+  @Override
+  public void write(char[] cbuf, int off, int len) throws IOException {
+    for (int i = off; i < off + len; i++) {
+      writeChar(cbuf[i]);
+    }
+  }
+
+  @Override
+  public void write(String str, int off, int len) throws IOException {
+    for (int i = off; i < off + len; i++) {
+      writeChar(str.charAt(i));
+    }
+  }
+
+  private void writeChar(char c) throws IOException {
+    if (c <= ' ') {
+      if (started || !trim) {
+        pending.append(c);
+      }
+      return;
+    }
+    started = true;
+    if (pending.length() > 0) {
+      writePending(false, c);
+    }
+    out.write(c);
+  }
+
+  /**
+   * Close the writer. The whitespaces at the end of the content are removed.
+   */
+  @Override
+  public void close() throws IOException {
+    if (!trim && pending.length() > 0) {
+      //control characters are kept, whitespaces at the end are removed:
+      writePending(true, ' ');
+    }
+    pending.setLength(0);
+    super.close();
+  }
+
+  /**
+   * Write the pending characters (all smaller or equal to ' '), followed by the character next or by the end of the
+   * content.
+   */
+  private void writePending(boolean end, char next) throws IOException {
+    int runStart = 0;
+    for (int i = 0; i < pending.length(); i++) {
+      char c = pending.charAt(i);
+      if (!isWhitespace(c)) {
+        writeRun(runStart, i, false, c);
+        out.write(c);
+        runStart = i + 1;
+      }
+    }
+    writeRun(runStart, pending.length(), end, next);
+    pending.setLength(0);
+  }
+
+  /**
+   * Write the whitespaces pending[start, end) followed by the character next or by the end of the content. As with the
+   * regex, the longest part of the run followed by a line end is removed.
+   */
+  private void writeRun(int start, int end, boolean endOfContent, char next) throws IOException {
+    if (start == end) {
+      return;
+    }
+    if (endOfContent || isLineTerminator(next)) {
+      //the run is followed by the end of the content or by a line terminator:
+      return;
+    }
+    int lineEnd = start;
+    for (int i = end - 1; i > start; i--) {
+      char c = pending.charAt(i);
+      if (c == '\r' || (c == '\n' && pending.charAt(i - 1) != '\r')) {
+        lineEnd = i;
+        break;
+      }
+      if (c == '\n') {
+        lineEnd = i - 1;
+        break;
+      }
+    }
+    out.append(pending, lineEnd, end);
+  }
+
+  /**
+   * @return true if c is one of the line terminators (outside of [\r\n]) where $ matches.
+   */
+  private static boolean isLineTerminator(char c) {
+    return c == 0x0085 || c == 0x2028 || c == 0x2029;
+  }
+
+  /**
+   * @return true if c matches \s in a regex ([ \t\n\x0B\f\r]).
+   */
+  private static boolean isWhitespace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+  }
+}
@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Jeremie Bresson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jeremie Bresson - initial API and implementation
+ ******************************************************************************/
+package com.bsiag.htmltools.internal;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+
+/**
+ * Index of a document used to fix the cross reference links (#858 workaround): id to element, element to caption title
+ * and the link text computed for a target. The ids are collected in one traversal of the document, the first time they
+ * are needed. Not thread-safe, one instance per document.
+ */
+class XrefIndex {
+
+  private final Document doc;
+  private Map<String, Element> elementsById;
+  private final Map<Element, String> titles = new IdentityHashMap<>();
+  private final Map<String, String> labels = new HashMap<>();
+
+  XrefIndex(Document doc) {
+    this.doc = doc;
+  }
+
+  /**
+   * Same as {@link Document#getElementById(String)}: the first element (in document order) with this id.
+   *
+   * @return the element or null
+   */
+  Element getElementById(String id) {
+    if (elementsById == null) {
+      elementsById = new HashMap<>();
+      for (Element element : doc.getAllElements()) {
+        String elementId = element.id();
+        if (elementId.length() > 0 && !elementsById.containsKey(elementId)) {
+          elementsById.put(elementId, element);
+        }
+      }
+    }
+    return elementsById.get(id);
+  }
+
+  /**
+   * @return the text of the title tag (first "div" with class "title" or else first "caption" with class "title") of
+   *         the element or null if there is no title tag.
+   */
+  String getTitle(Element element) {
+    if (titles.containsKey(element)) {
+      return titles.get(element);
+    }
+    Element titleTag = findTitleTag(element);
+    String title = titleTag == null ? null : titleTag.text();
+    titles.put(element, title);
+    return title;
+  }
+
+  private static Element findTitleTag(Element element) {
+    Element caption = null;
+    for (Element e : element.getAllElements()) {
+      if ("title".equals(e.attr("class"))) {
+        if ("div".equals(e.tagName())) {
+          return e;
+        }
+        if (caption == null && "caption".equals(e.tagName())) {
+          caption = e;
+        }
+      }
+    }
+    return caption;
+  }
+
+  boolean hasLabel(String key) {
+    return labels.containsKey(key);
+  }
+
+  /**
+   * @return the link text stored for key, can be null (meaning that the link text should not be changed).
+   */
+  String getLabel(String key) {
+    return labels.get(key);
+  }
+
+  void putLabel(String key, String label) {
+    labels.put(key, label);
+  }
+}
@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Jeremie Bresson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jeremie Bresson - initial API and implementation
+ ******************************************************************************/
+package com.bsiag.htmltools.internal;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Decides which entries of a zip file are written without compression (STORED). Files that are already compressed
+ * (images, PDF, archives, fonts) barely shrink with DEFLATE but cost a lot of CPU. An entry is stored if its extension
+ * is one of the stored extensions or if the beginning of its content looks random (high entropy).
+ */
+public class ZipCompressionPolicy {
+  /**
+   * Extensions of the file formats that are already compressed.
+   */
+  public static final Set<String> DEFAULT_STORED_EXTENSIONS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+      "png", "jpg", "jpeg", "gif", "webp", "pdf", "zip", "gz", "tgz", "bz2", "xz", "7z", "jar", "war", "woff", "woff2", "mp3", "mp4", "webm", "svgz")));
+
+  /**
+   * Entropy (in bits per byte) above which content is considered as already compressed.
+   */
+  public static final double DEFAULT_ENTROPY_THRESHOLD = 7.5;
+
+  /**
+   * Minimal number of bytes needed to sniff the entropy (on shorter content, the estimation is not meaningful).
+   */
+  static final int MIN_SNIFF_LENGTH = 4096;
+
+  private static final ZipCompressionPolicy DEFAULT = new ZipCompressionPolicy(DEFAULT_STORED_EXTENSIONS, DEFAULT_ENTROPY_THRESHOLD);
+  private static final ZipCompressionPolicy DEFLATE_ALL = new ZipCompressionPolicy(Collections.<String> emptySet(), Double.MAX_VALUE);
+
+  private final Set<String> storedExtensions;
+  private final double entropyThreshold;
+
+  /**
+   * @param storedExtensions
+   *          extensions (lower case, without dot) of the entries that are stored.
+   * @param entropyThreshold
+   *          entries having a higher entropy at the beginning of their content are stored.
+   */
+  public ZipCompressionPolicy(Set<String> storedExtensions, double entropyThreshold) {
+    this.storedExtensions = storedExtensions;
+    this.entropyThreshold = entropyThreshold;
+  }
+
+  /**
+   * @return the default policy (stored extensions and entropy sniffing).
+   */
+  public static ZipCompressionPolicy defaultPolicy() {
+    return DEFAULT;
+  }
+
+  /**
+   * @return a policy compressing all entries.
+   */
+  public static ZipCompressionPolicy deflateAll() {
+    return DEFLATE_ALL;
+  }
+
+  /**
+   * @param name
+   *          name of the entry.
+   * @param head
+   *          beginning of the content of the entry.
+   * @param length
+   *          number of bytes in head.
+   * @return true if the entry should be written without compression.
+   */
+  public boolean isStored(String name, byte[] head, int length) {
+    if (storedExtensions.contains(getType(name))) {
+      return true;
+    }
+    return length >= MIN_SNIFF_LENGTH && entropy(head, length) > entropyThreshold;
+  }
+
+  /**
+   * @return the content type of an entry used for the statistics and the stored extensions: the extension in lower
+   *         case, or an empty string if the name has no extension.
+   */
+  public static String getType(String name) {
+    int slash = name.lastIndexOf('/');
+    int dot = name.lastIndexOf('.');
+    if (dot <= slash + 1) {
+      return "";
+    }
+    return name.substring(dot + 1).toLowerCase(Locale.ENGLISH);
+  }
+
+  /**
+   * @return Shannon entropy of the bytes, in bits per byte (between 0 and 8).
+   */
+  static double entropy(byte[] bytes, int length) {
+    int[] counts = new int[256];
+    for (int i = 0; i < length; i++) {
+      counts[bytes[i] & 0xFF]++;
+    }
+    double entropy = 0;
+    for (int count : counts) {
+      if (count > 0) {
+        double p = (double) count / length;
+        entropy -= p * Math.log(p);
+      }
+    }
+    return entropy / Math.log(2);
+  }
+}
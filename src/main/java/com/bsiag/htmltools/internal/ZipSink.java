@@ -0,0 +1,222 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Jeremie Bresson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jeremie Bresson - initial API and implementation
+ ******************************************************************************/
+package com.bsiag.htmltools.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.jsoup.nodes.Document;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import com.google.common.io.Resources;
+
+/**
+ * Sink writing the published pages and their assets directly in a zip file, without an intermediate folder. All the
+ * entries are placed in a root folder.
+ * <p>
+ * The pages are written in the order of their index (a page published concurrently is kept in memory until the pages
+ * before it are written), the assets are written sorted by path when the sink is closed. For an asset path given with
+ * different sources, the source of the page with the highest index is written. The content of the zip does not depend
+ * on the number of threads used to publish the pages.
+ */
+public class ZipSink implements PublishSink, Closeable {
+
+  private final File zipFile;
+  private final String rootFolder;
+  private final ParallelZipWriter zip;
+  private final Map<Integer, PendingPage> pendingPages = new TreeMap<>();
+  private final Map<String, Asset> assets = new TreeMap<>();
+  private int nextIndex;
+  private boolean closed;
+  private boolean minify;
+  private boolean fixExternalLinks;
+
+  /**
+   * @param zipFile
+   *          the zip file to create (replaced if it exists).
+   * @param rootFolder
+   *          name of the folder containing all entries of the zip file.
+   * @throws IOException
+   */
+  public ZipSink(File zipFile, String rootFolder) throws IOException {
+    this(zipFile, rootFolder, ZipUtility.DEFAULT_LEVEL, ZipUtility.defaultThreads());
+  }
+
+  /**
+   * @param level
+   *          compression level (0-9).
+   * @param threads
+   *          number of threads used for the compression.
+   */
+  public ZipSink(File zipFile, String rootFolder, int level, int threads) throws IOException {
+    this.zipFile = zipFile;
+    this.rootFolder = rootFolder;
+    Files.createParentDirs(zipFile);
+    this.zip = new ParallelZipWriter(new FileOutputStream(zipFile), level, threads);
+  }
+
+  /**
+   * @param minify
+   *          true if the pages are published with {@link ParamPublishHtmlFiles#setMinify(boolean)}: the documents are
+   *          written without the optional end tags.
+   */
+  public void setMinify(boolean minify) {
+    this.minify = minify;
+  }
+
+  /**
+   * @param fixExternalLinks
+   *          true if the external links are fixed in the zip, but not in the published pages. The pages are published
+   *          once for the output folder and the zip: the written pages are patched (see {@link ExternalLinkPatcher}), a
+   *          document given to {@link #putPage(int, String, Document)} is fixed before its serialization.
+   */
+  public void setFixExternalLinks(boolean fixExternalLinks) {
+    this.fixExternalLinks = fixExternalLinks;
+  }
+
+  @Override
+  public void putPage(int index, String path, Document doc) throws IOException {
+    if (fixExternalLinks) {
+      PublishUtility.fixExternalLinks(doc);
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    PublishUtility.writeDocument(doc, out, minify);
+    putPage(index, new PendingPage(path, out.toByteArray()));
+  }
+
+  @Override
+  public void putPage(int index, String path, File publishedFile) throws IOException {
+    putPage(index, new PendingPage(path, fixPage(Files.toByteArray(publishedFile))));
+  }
+
+  /**
+   * @return the content of the written page in the zip (the pages are always encoded as UTF-8).
+   */
+  private byte[] fixPage(byte[] content) {
+    if (!fixExternalLinks) {
+      return content;
+    }
+    return ExternalLinkPatcher.patch(new String(content, Charsets.UTF_8)).getBytes(Charsets.UTF_8);
+  }
+
+  @Override
+  public synchronized void putAsset(int index, String path, File source) throws IOException {
+    Asset previous = assets.get(path);
+    if (previous == null || previous.index <= index) {
+      assets.put(path, new Asset(index, source));
+    }
+  }
+
+  @Override
+  public synchronized void putResource(String path, URL resource) throws IOException {
+    if (!assets.containsKey(path)) {
+      assets.put(path, new Asset(-1, resource));
+    }
+  }
+
+  private synchronized void putPage(int index, PendingPage page) throws IOException {
+    pendingPages.put(index, page);
+    while (pendingPages.containsKey(nextIndex)) {
+      writePage(pendingPages.remove(nextIndex));
+      nextIndex++;
+    }
+  }
+
+  /**
+   * @return compression statistics per content type, complete once the sink is closed.
+   */
+  public synchronized Collection<ParallelZipWriter.TypeStatistics> getStatistics() {
+    return zip.getStatistics().values();
+  }
+
+  /**
+   * Write the remaining pages and the assets, wait for their compression and close the zip file.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      //pages missing in the sequence (failed pages):
+      for (PendingPage page : pendingPages.values()) {
+        writePage(page);
+      }
+      pendingPages.clear();
+      for (Map.Entry<String, Asset> e : assets.entrySet()) {
+        String name = rootFolder + "/" + e.getKey();
+        Object source = e.getValue().source;
+        if (source instanceof File) {
+          zip.putFile(name, (File) source);
+        }
+        else {
+          zip.putEntry(name, Resources.asByteSource((URL) source), System.currentTimeMillis());
+        }
+      }
+    }
+    finally {
+      zip.close();
+    }
+  }
+
+  /**
+   * Close the zip file without writing the remaining pages and assets and delete it (the publish run failed). Can be
+   * called after a failed {@link #close()}.
+   */
+  public synchronized void abort() throws IOException {
+    closed = true;
+    pendingPages.clear();
+    assets.clear();
+    try {
+      zip.abort();
+    }
+    finally {
+      java.nio.file.Files.deleteIfExists(zipFile.toPath());
+    }
+  }
+
+  private void writePage(PendingPage page) throws IOException {
+    zip.putEntry(rootFolder + "/" + page.path, page.content);
+  }
+
+  /**
+   * Source of an asset: a {@link File} or a {@link URL} (resource), with the index of the page giving it (-1 for a
+   * resource).
+   */
+  private static class Asset {
+    private final int index;
+    private final Object source;
+
+    Asset(int index, Object source) {
+      this.index = index;
+      this.source = source;
+    }
+  }
+
+  private static class PendingPage {
+    private final String path;
+    private final byte[] content;
+
+    PendingPage(String path, byte[] content) {
+      this.path = path;
+      this.content = content;
+    }
+  }
+}
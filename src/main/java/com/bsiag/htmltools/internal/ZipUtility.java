@@ -10,115 +10,242 @@
  ******************************************************************************/
 package com.bsiag.htmltools.internal;
 
+import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
 
 import com.google.common.io.Files;
 
 public class ZipUtility {
+  public static final int DEFAULT_LEVEL = 6;
+  private static final int BUFFER_SIZE = 64 * 1024;
 
   public static void zipFolder(File srcFolder, File destZipFile) {
-    ZipOutputStream zip = null;
-    FileOutputStream fileWriter = null;
-
     try {
-      fileWriter = new FileOutputStream(destZipFile);
-      zip = new ZipOutputStream(fileWriter);
-
-      addFolderToZip("", srcFolder.getCanonicalPath(), zip);
-      zip.flush();
-      zip.close();
+      zipFolder(srcFolder, destZipFile, DEFAULT_LEVEL, defaultThreads());
     }
     catch (IOException e) {
       e.printStackTrace();
     }
   }
 
-  private static void addFileToZip(String path, String srcFile, ZipOutputStream zip) {
-
-    File folder = new File(srcFile);
-    if (folder.isDirectory()) {
-      addFolderToZip(path, srcFile, zip);
+  /**
+   * Zip the folder (the entries are in a root folder having the name of srcFolder). The entries are compressed
+   * concurrently and written sorted by path.
+   *
+   * @param level
+   *          compression level (0-9).
+   * @param threads
+   *          number of threads used for the compression.
+   * @return compression statistics per content type. Already compressed files (images, PDF, ...) are stored, see
+   *         {@link ZipCompressionPolicy}.
+   */
+  public static Collection<ParallelZipWriter.TypeStatistics> zipFolder(File srcFolder, File destZipFile, int level, int threads) throws IOException {
+    File folder = srcFolder.getCanonicalFile();
+    ParallelZipWriter zip = new ParallelZipWriter(new FileOutputStream(destZipFile), level, threads);
+    try {
+      addFolderToZip(folder.getName(), folder, zip);
     }
-    else {
-      byte[] buf = new byte[1024];
-      int len;
-      try (FileInputStream in = new FileInputStream(srcFile)) {
-        zip.putNextEntry(new ZipEntry(path + "/" + folder.getName()));
-        while ((len = in.read(buf)) > 0) {
-          zip.write(buf, 0, len);
-        }
-        in.close();
-      }
-      catch (IOException e) {
-        e.printStackTrace();
-      }
+    finally {
+      zip.close();
     }
+    return zip.getStatistics().values();
   }
 
-  private static void addFolderToZip(String path, String srcFolder, ZipOutputStream zip) {
-    File folder = new File(srcFolder);
+  /**
+   * @return the default number of threads used to compress a zip file (number of processors).
+   */
+  public static int defaultThreads() {
+    return Runtime.getRuntime().availableProcessors();
+  }
 
-    for (String fileName : folder.list()) {
-      if (path.equals("")) {
-        addFileToZip(folder.getName(), srcFolder + "/" + fileName, zip);
+  private static void addFolderToZip(String path, File folder, ParallelZipWriter zip) throws IOException {
+    String[] fileNames = folder.list();
+    Arrays.sort(fileNames);
+    for (String fileName : fileNames) {
+      File file = new File(folder, fileName);
+      if (file.isDirectory()) {
+        addFolderToZip(path + "/" + fileName, file, zip);
       }
       else {
-        addFileToZip(path + "/" + folder.getName(), srcFolder + "/" + fileName, zip);
+        zip.putFile(path + "/" + fileName, file);
       }
     }
   }
 
   public static void unzip(InputStream zipInputStream, File outputFolder) {
-    byte[] buffer = new byte[1024];
-
     try {
-      //create output directory is not exists
-      File folder = outputFolder;
-      if (!folder.exists()) {
-        folder.mkdir();
-      }
+      unzip(zipInputStream, outputFolder, null);
+    }
+    catch (IOException ex) {
+      ex.printStackTrace();
+    }
+  }
 
-      //get the zip file content
-      ZipInputStream zis = new ZipInputStream(zipInputStream);
-      //get the zipped file list entry
+  /**
+   * Extract the entries of the zip stream located in subFolder. The other entries are skipped without being written.
+   *
+   * @param subFolder
+   *          path of a folder in the zip ('/' as separator), null or empty to extract all entries.
+   * @return the number of extracted files.
+   */
+  public static int unzip(InputStream zipInputStream, File outputFolder, String subFolder) throws IOException {
+    String prefix = toEntryPrefix(subFolder);
+    outputFolder.mkdirs();
+    byte[] buffer = new byte[BUFFER_SIZE];
+    int count = 0;
+    try (ZipInputStream zis = new ZipInputStream(new BufferedInputStream(zipInputStream, BUFFER_SIZE))) {
       ZipEntry ze = zis.getNextEntry();
-
       while (ze != null) {
-        String fileName = ze.getName();
-        File newFile = new File(outputFolder + File.separator + fileName);
-
-        if (ze.isDirectory()) {
-          newFile.mkdirs();
+        if (isSelected(ze.getName(), prefix)) {
+          File newFile = toOutputFile(outputFolder, ze.getName());
+          if (ze.isDirectory()) {
+            newFile.mkdirs();
+          }
+          else {
+            Files.createParentDirs(newFile);
+            try (OutputStream out = new FileOutputStream(newFile)) {
+              copy(zis, out, buffer);
+            }
+            count++;
+          }
         }
-        else {
-          //create all non exists folders
-          //else you will hit FileNotFoundException for compressed folder
-          Files.createParentDirs(newFile);
+        ze = zis.getNextEntry();
+      }
+    }
+    return count;
+  }
 
-          FileOutputStream fos = new FileOutputStream(newFile);
+  /**
+   * @param fileUrl
+   *          URL with the "file" protocol.
+   * @return the file of the URL or null if the URL can not be converted (a file on a server:
+   *         <code>file://server/share/docs.zip</code>). URLs that are not valid URIs (for example
+   *         <code>file:/C:/My Documents/docs.zip</code> with an unencoded space) are accepted: their path is decoded.
+   */
+  public static File toFile(URL fileUrl) throws IOException {
+    try {
+      return new File(fileUrl.toURI());
+    }
+    catch (URISyntaxException e) {
+      if (fileUrl.getHost() != null && !fileUrl.getHost().isEmpty()) {
+        return null;
+      }
+      //a '+' is not a space in the path of a URL:
+      return new File(URLDecoder.decode(fileUrl.getPath().replace("+", "%2B"), "UTF-8"));
+    }
+    catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
 
-          int len;
-          while ((len = zis.read(buffer)) > 0) {
-            fos.write(buffer, 0, len);
+  /**
+   * Extract the entries of the zip file located in subFolder (see {@link #unzip(InputStream, File, String)}). The zip
+   * file is read with random access: only the selected entries are read, they are extracted concurrently.
+   *
+   * @param threads
+   *          number of threads used for the extraction.
+   * @return the number of extracted files.
+   */
+  public static int unzip(File zipFile, File outputFolder, String subFolder, int threads) throws IOException {
+    String prefix = toEntryPrefix(subFolder);
+    outputFolder.mkdirs();
+    try (final ZipFile zip = new ZipFile(zipFile)) {
+      List<ZipEntry> selected = new ArrayList<>();
+      for (ZipEntry ze : Collections.list(zip.entries())) {
+        if (isSelected(ze.getName(), prefix)) {
+          File newFile = toOutputFile(outputFolder, ze.getName());
+          if (ze.isDirectory()) {
+            newFile.mkdirs();
+          }
+          else {
+            selected.add(ze);
           }
+        }
+      }
 
-          fos.close();
+      ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, selected.size())));
+      try {
+        List<Future<Void>> futures = new ArrayList<>();
+        for (final ZipEntry ze : selected) {
+          final File newFile = toOutputFile(outputFolder, ze.getName());
+          futures.add(executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+              Files.createParentDirs(newFile);
+              try (InputStream in = zip.getInputStream(ze); OutputStream out = new FileOutputStream(newFile)) {
+                copy(in, out, new byte[BUFFER_SIZE]);
+              }
+              return null;
+            }
+          }));
         }
-        ze = zis.getNextEntry();
+        for (Future<Void> future : futures) {
+          ConcurrentTasks.waitFor(future, "extracting a zip entry");
+        }
+      }
+      finally {
+        executor.shutdownNow();
       }
+      return selected.size();
+    }
+  }
 
-      zis.closeEntry();
-      zis.close();
+  /**
+   * @return the prefix of the selected entries ("sub/folder/"), or an empty string to select all entries.
+   */
+  static String toEntryPrefix(String subFolder) {
+    if (subFolder == null) {
+      return "";
     }
-    catch (IOException ex) {
-      ex.printStackTrace();
+    String prefix = subFolder.replace('\\', '/');
+    while (prefix.startsWith("/") || prefix.startsWith("./")) {
+      prefix = prefix.substring(prefix.indexOf('/') + 1);
+    }
+    if (prefix.length() > 0 && !prefix.endsWith("/")) {
+      prefix = prefix + "/";
+    }
+    return prefix;
+  }
+
+  private static boolean isSelected(String name, String prefix) {
+    return name.startsWith(prefix);
+  }
+
+  /**
+   * @return the file corresponding to the entry. An entry outside of the output folder ("../" in its name) is refused.
+   */
+  static File toOutputFile(File outputFolder, String name) throws IOException {
+    File file = new File(outputFolder, name);
+    String folderPath = outputFolder.getCanonicalPath() + File.separator;
+    if (!file.getCanonicalPath().startsWith(folderPath)) {
+      throw new IOException("Zip entry '" + name + "' is outside of the output folder: " + outputFolder.getAbsolutePath());
+    }
+    return file;
+  }
+
+  private static void copy(InputStream in, OutputStream out, byte[] buffer) throws IOException {
+    int len;
+    while ((len = in.read(buffer)) > 0) {
+      out.write(buffer, 0, len);
     }
   }
 }
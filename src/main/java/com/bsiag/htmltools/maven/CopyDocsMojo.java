@@ -15,6 +15,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
@@ -24,8 +25,12 @@ import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 
+import com.bsiag.htmltools.internal.CopyStrategy;
 import com.bsiag.htmltools.internal.FileAction;
+import com.bsiag.htmltools.internal.PrecompressedFiles;
+import com.bsiag.htmltools.internal.PublishStatistics;
 import com.bsiag.htmltools.internal.PublishUtility;
+import com.bsiag.htmltools.internal.SyncIndex;
 import com.bsiag.htmltools.internal.ZipUtility;
 import com.google.common.io.Resources;
 
@@ -37,6 +42,12 @@ public class CopyDocsMojo extends AbstractMojo {
   private static final String INPUT_SUB_FOLDER = "inputSubFolder";
   private static final String PARTIAL_SYNC = "partialSync";
   private static final String OUTPUT_FOLDER = "outputFolder";
+  private static final String COPY_STRATEGY = "copyStrategy";
+  private static final String THREADS = "threads";
+  private static final String SYNC_INDEX = "syncIndex";
+  private static final String VERIFY_SYNC_INDEX = "verifySyncIndex";
+  private static final String STATISTICS_FILE = "statisticsFile";
+  private static final String PRECOMPRESS = "precompress";
 
   @Parameter(property = INPUT_ZIP_URL)
   protected String inputZipUrl;
@@ -53,8 +64,29 @@ public class CopyDocsMojo extends AbstractMojo {
   @Parameter(property = OUTPUT_FOLDER, defaultValue = "${project.build.directory}/copied-docs")
   protected File outputFolder;
 
+  @Parameter(property = COPY_STRATEGY, defaultValue = "COPY")
+  protected CopyStrategy copyStrategy = CopyStrategy.COPY;
+
+  @Parameter(property = THREADS)
+  protected Integer threads; //Number of threads used to unzip, to compare the folders and to copy the files, default is the number of processors.
+
+  @Parameter(property = SYNC_INDEX, defaultValue = "false")
+  protected boolean syncIndex = false; //Store the state of the output folder in '<outputFolder>.htmltools-index', the output files are not read again.
+
+  @Parameter(property = VERIFY_SYNC_INDEX, defaultValue = "false")
+  protected boolean verifySyncIndex = false; //Check the output files against the sync index (when the output folder was modified by another tool).
+
+  @Parameter(property = STATISTICS_FILE, defaultValue = "${project.build.directory}/copydocs-statistics.json")
+  protected File statisticsFile; //JSON report of the run (time spent in each stage, number of actions).
+
+  @Parameter(property = PRECOMPRESS, defaultValue = "false")
+  protected boolean precompress = false; //Write a '.gz' file next to each copied HTML, CSS, JS and SVG file.
+
   @Override
   public void execute() throws MojoExecutionException, MojoFailureException {
+    int threadCount = threads == null ? Runtime.getRuntime().availableProcessors() : threads.intValue();
+    PublishStatistics statistics = new PublishStatistics();
+
     //Output Folder:
     if (outputFolder == null) {
       throw new MojoFailureException("outputFolder is undefined.");
@@ -71,21 +103,29 @@ public class CopyDocsMojo extends AbstractMojo {
       throw new MojoFailureException("inputFolder is not a directory. " + inputFolder.getAbsolutePath());
     }
 
-    //If the ZipUrl is defined, the zip file will be extracted in the input folder:
+    //If the ZipUrl is defined, the zip file will be extracted in the input folder (only the inputSubFolder, if defined):
     if (inputZipUrl != null) {
-      URL zipFile;
       try {
-        zipFile = new URL(inputZipUrl);
-        InputStream zipInputStream = Resources.asByteSource(zipFile).openBufferedStream();
-
-        ZipUtility.unzip(zipInputStream, inputFolder);
-        getLog().info("Zip '" + inputZipUrl + "' unzipped at: " + inputFolder.getAbsolutePath());
+        URL zipUrl = new URL(inputZipUrl);
+        long start = System.nanoTime();
+        int count;
+        File zipFile = "file".equals(zipUrl.getProtocol()) ? ZipUtility.toFile(zipUrl) : null;
+        if (zipFile != null) {
+          count = ZipUtility.unzip(zipFile, inputFolder, inputSubFolder, threadCount);
+        }
+        else {
+          try (InputStream zipInputStream = Resources.asByteSource(zipUrl).openStream()) {
+            count = ZipUtility.unzip(zipInputStream, inputFolder, inputSubFolder);
+          }
+        }
+        statistics.addTimeSince(PublishStatistics.Stage.UNZIP, start);
+        getLog().info("Zip '" + inputZipUrl + "' unzipped at: " + inputFolder.getAbsolutePath() + " (" + count + " files extracted)");
       }
       catch (MalformedURLException e) {
-        new MojoFailureException("MalformedURLException in copydocs (unzip)", e);
+        throw new MojoFailureException("Invalid URL in copydocs (unzip): " + inputZipUrl, e);
       }
       catch (IOException e) {
-        new MojoFailureException("IOExectpion in copydocs (unzip)", e);
+        throw new MojoFailureException("IOException in copydocs (unzip)", e);
       }
     }
 
@@ -104,24 +144,62 @@ public class CopyDocsMojo extends AbstractMojo {
 
     //Execute action:
     try {
-      List<FileAction> actions = PublishUtility.computeActions(inputWorkFolder, outputFolder, !partialSync);
+      SyncIndex index = null;
+      if (syncIndex) {
+        index = SyncIndex.load(SyncIndex.defaultIndexFile(outputFolder), outputFolder);
+        getLog().info("Sync index '" + index.getIndexFile().getAbsolutePath() + "' loaded (" + index.size() + " entries)");
+        if (verifySyncIndex) {
+          int changes = index.verify();
+          getLog().info("Sync index verified (" + changes + " entries updated)");
+        }
+      }
+      long start = System.nanoTime();
+      List<FileAction> actions = PublishUtility.computeActions(inputWorkFolder, outputFolder, !partialSync, threadCount, index);
+      start = statistics.addTimeSince(PublishStatistics.Stage.COMPUTE_ACTIONS, start);
+      statistics.increment(PublishStatistics.Counter.FILE_ACTIONS, actions.size());
       getLog().info("Found '" + actions.size() + "' actions to perform in: " + outputFolder.getAbsolutePath());
       for (FileAction a : actions) {
         getLog().debug("Action : " + a.toString());
       }
-      PublishUtility.doActions(actions);
+      PublishUtility.doActions(actions, copyStrategy, threadCount);
+      List<FileAction> imagesActions = new ArrayList<>();
       if (actions.size() > 0) {
         Collection<FileAction> parents = PublishUtility.computeParentFolders(actions);
         for (FileAction a : parents) {
           FileAction child = a.createActionWithSubFolder("images");
           getLog().info("Sync subfolder 'images': " + child.toString());
-          child.doAction();
+          imagesActions.add(child);
         }
+        PublishUtility.doActions(imagesActions, copyStrategy, threadCount);
+      }
+      start = statistics.addTimeSince(PublishStatistics.Stage.EXECUTE_ACTIONS, start);
+      if (precompress) {
+        //only the files created or replaced by the actions are compressed:
+        int count = PrecompressedFiles.compressTargets(actions, threadCount) + PrecompressedFiles.compressTargets(imagesActions, threadCount);
+        statistics.addTimeSince(PublishStatistics.Stage.PRECOMPRESS, start);
+        statistics.increment(PublishStatistics.Counter.PRECOMPRESSED_FILES, count);
+        getLog().info("Precompressed files: " + count);
+      }
+      if (index != null) {
+        index.update(actions);
+        index.save();
       }
     }
     catch (IOException e) {
-      new MojoFailureException("IOExectpion in copydocs", e);
+      throw new MojoFailureException("IOException in copydocs", e);
     }
 
+    statistics.stop();
+    for (String line : statistics.formatSummary(0)) {
+      getLog().info(line);
+    }
+    if (statisticsFile != null) {
+      try {
+        statistics.writeJson(statisticsFile, 0);
+      }
+      catch (IOException e) {
+        getLog().warn("Could not write the statistics file: " + statisticsFile.getAbsolutePath(), e);
+      }
+    }
   }
 }
@@ -15,6 +15,8 @@ import java.util.List;
 
 import org.apache.maven.plugins.annotations.Parameter;
 
+import com.bsiag.htmltools.internal.OutputMode;
+
 /**
  * @author jbr
  */
@@ -23,6 +25,15 @@ public class HtmlOutput {
   static final String OUTPUT_ZIP_FILE_NAME = "outputZipFileName";
   static final String CSS_REPLACEMENTS = "cssReplacements";
   static final String PAGES_LIST_FILE = "pagesListFile";
+  static final String PUBLISH_THREADS = "publishThreads";
+  static final String INCREMENTAL = "incremental";
+  static final String ZIP_LEVEL = "zipLevel";
+  static final String ZIP_THREADS = "zipThreads";
+  static final String OUTPUT_MODE = "outputMode";
+  static final String MINIFY = "minify";
+  static final String PRECOMPRESS = "precompress";
+  static final String FINGERPRINT_ASSETS = "fingerprintAssets";
+  static final String INLINE_IMAGE_MAX_SIZE = "inlineImageMaxSize";
 
   @Parameter(property = OUTPUT_SUB_FOLDER)
   private String outputSubFolder;
@@ -36,6 +47,33 @@ public class HtmlOutput {
   @Parameter(property = PAGES_LIST_FILE)
   protected File pagesListFile;
 
+  @Parameter(property = PUBLISH_THREADS, defaultValue = "1")
+  private Integer publishThreads; //Number of pages published concurrently.
+
+  @Parameter(property = INCREMENTAL, defaultValue = "false")
+  private Boolean incremental; //Publish only the pages that have changed since the previous run.
+
+  @Parameter(property = ZIP_LEVEL, defaultValue = "6")
+  private Integer zipLevel; //Compression level of the zip file (0-9).
+
+  @Parameter(property = ZIP_THREADS)
+  private Integer zipThreads; //Number of threads compressing the zip file, default is the number of processors.
+
+  @Parameter(property = OUTPUT_MODE, defaultValue = "PRETTY_ASCII")
+  private OutputMode outputMode; //PRETTY_ASCII (pretty printed, non-ASCII characters as entities) or COMPACT_UTF8.
+
+  @Parameter(property = MINIFY, defaultValue = "false")
+  private Boolean minify; //Collapse the whitespaces, remove the comments and the optional end tags of the pages.
+
+  @Parameter(property = PRECOMPRESS, defaultValue = "false")
+  private Boolean precompress; //Write a '.gz' file next to each HTML, CSS, JS and SVG file of the output (for gzip_static).
+
+  @Parameter(property = FINGERPRINT_ASSETS, defaultValue = "false")
+  private Boolean fingerprintAssets; //Add the hash of the content to the names of the images and CSS files (for long-lived caching).
+
+  @Parameter(property = INLINE_IMAGE_MAX_SIZE, defaultValue = "0")
+  private Long inlineImageMaxSize; //Images up to this size (in bytes) are embedded in the pages as data URIs, 0 to copy all the images.
+
   public String getOutputSubFolder() {
     return outputSubFolder;
   }
@@ -51,4 +89,40 @@ public class HtmlOutput {
   public File getPagesListFile() {
     return pagesListFile;
   }
+
+  public Integer getPublishThreads() {
+    return publishThreads;
+  }
+
+  public Boolean getIncremental() {
+    return incremental;
+  }
+
+  public Integer getZipLevel() {
+    return zipLevel;
+  }
+
+  public Integer getZipThreads() {
+    return zipThreads;
+  }
+
+  public OutputMode getOutputMode() {
+    return outputMode;
+  }
+
+  public Boolean getMinify() {
+    return minify;
+  }
+
+  public Boolean getPrecompress() {
+    return precompress;
+  }
+
+  public Boolean getFingerprintAssets() {
+    return fingerprintAssets;
+  }
+
+  public Long getInlineImageMaxSize() {
+    return inlineImageMaxSize;
+  }
 }
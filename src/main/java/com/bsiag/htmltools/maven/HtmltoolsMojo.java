@@ -13,6 +13,7 @@ package com.bsiag.htmltools.maven;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -23,8 +24,16 @@ import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 
+import com.bsiag.htmltools.internal.AssetStore;
+import com.bsiag.htmltools.internal.CopyStrategy;
+import com.bsiag.htmltools.internal.OutputMode;
+import com.bsiag.htmltools.internal.ParallelZipWriter;
 import com.bsiag.htmltools.internal.ParamPublishHtmlFiles;
+import com.bsiag.htmltools.internal.PrecompressedFiles;
+import com.bsiag.htmltools.internal.PublishSink;
+import com.bsiag.htmltools.internal.PublishStatistics;
 import com.bsiag.htmltools.internal.PublishUtility;
+import com.bsiag.htmltools.internal.ZipSink;
 import com.bsiag.htmltools.internal.ZipUtility;
 import com.google.common.base.Charsets;
 import com.google.common.io.Files;
@@ -34,6 +43,9 @@ public class HtmltoolsMojo extends AbstractMojo {
 
   private static final String INPUT_SOURCES = "inputSources";
   private static final String OUTPUT_FOLDER = "outputFolder";
+  private static final String COPY_STRATEGY = "copyStrategy";
+  private static final String STATISTICS_FILE = "statisticsFile";
+  private static final int SLOWEST_PAGES = 10;
 
   @Parameter(property = INPUT_SOURCES)
   protected List<InputSource> inputSources;
@@ -47,6 +59,18 @@ public class HtmltoolsMojo extends AbstractMojo {
   @Parameter(property = OUTPUT_FOLDER, defaultValue = "${project.build.directory}/published-docs")
   protected File outputFolder;
 
+  /**
+   * How the images, CSS and PDF files are copied: COPY, TRANSFER (zero-copy) or HARD_LINK.
+   */
+  @Parameter(property = COPY_STRATEGY, defaultValue = "COPY")
+  protected CopyStrategy copyStrategy = CopyStrategy.COPY;
+
+  /**
+   * JSON report of the run: time spent in each stage, pages, bytes, assets and slowest pages.
+   */
+  @Parameter(property = STATISTICS_FILE, defaultValue = "${project.build.directory}/htmltools-statistics.json")
+  protected File statisticsFile;
+
   @Override
   public void execute() throws MojoExecutionException, MojoFailureException {
 
@@ -98,6 +122,7 @@ public class HtmltoolsMojo extends AbstractMojo {
       }
     }
 
+    PublishStatistics statistics = new PublishStatistics();
     for (InputSource inputSource : inputSources) {
       File inputSourceOutputFolder = computeSubFolder(outputFolder, inputSource.getOutputSubFolder());
 
@@ -113,7 +138,22 @@ public class HtmltoolsMojo extends AbstractMojo {
           }
         }
 
+        String outputZipFileName = htmlOutput.getOutputZipFileName();
+        boolean minify = htmlOutput.getMinify() == null ? false : htmlOutput.getMinify().booleanValue();
+        boolean fingerprintAssets = htmlOutput.getFingerprintAssets() == null ? false : htmlOutput.getFingerprintAssets().booleanValue();
+        long inlineImageMaxSize = htmlOutput.getInlineImageMaxSize() == null ? 0 : htmlOutput.getInlineImageMaxSize().longValue();
+        ZipSink zipSink = null;
+        boolean zipWritten = false;
         try {
+          if (outputZipFileName != null && outputZipFileName.length() > 0) {
+            int zipLevel = htmlOutput.getZipLevel() == null ? ZipUtility.DEFAULT_LEVEL : htmlOutput.getZipLevel().intValue();
+            int zipThreads = htmlOutput.getZipThreads() == null ? ZipUtility.defaultThreads() : htmlOutput.getZipThreads().intValue();
+            zipSink = new ZipSink(new File(htmlOutputFolder, outputZipFileName), Files.getNameWithoutExtension(outputZipFileName), zipLevel, zipThreads);
+            zipSink.setMinify(minify);
+            //the external links are fixed by default in the zip, but not in the folder:
+            zipSink.setFixExternalLinks(inputSource.getFixExternalLinks() == null);
+          }
+
           ParamPublishHtmlFiles param = new ParamPublishHtmlFiles();
           param.setInFolder(inputSource.getInputFolder());
           param.setInFiles(pageListMap.get(htmlOutput));
@@ -121,28 +161,55 @@ public class HtmltoolsMojo extends AbstractMojo {
           param.setCssReplacement(cssReplacementMap);
           param.setFixXrefLinks(inputSource.getFixXrefLinks() == null ? true : inputSource.getFixXrefLinks().booleanValue());
           param.setFixExternalLinks(inputSource.getFixExternalLinks() == null ? false : inputSource.getFixExternalLinks().booleanValue());
+          param.setCharset(inputSource.getCharset());
+          param.setOutputMode(htmlOutput.getOutputMode() == null ? OutputMode.PRETTY_ASCII : htmlOutput.getOutputMode());
+          param.setMinify(minify);
+          param.setFingerprintAssets(fingerprintAssets);
+          param.setInlineImageMaxSize(inlineImageMaxSize);
+          param.setThreads(htmlOutput.getPublishThreads() == null ? 1 : htmlOutput.getPublishThreads().intValue());
+          param.setIncremental(htmlOutput.getIncremental() == null ? false : htmlOutput.getIncremental().booleanValue());
+          AssetStore assetStore = new AssetStore(copyStrategy);
+          param.setAssetStore(assetStore);
+          param.setStatistics(statistics);
+          if (zipSink != null) {
+            param.setSinks(Collections.<PublishSink> singletonList(zipSink));
+          }
           PublishUtility.publishHtmlFiles(param);
           getLog().info("HTML InputSource <" + inputSource.getInputFolder().getAbsolutePath() + "> to " + htmlOutputFolder.getAbsolutePath());
+          getLog().info("Assets: " + assetStore.getCopiedCount() + " copied, " + assetStore.getAvoidedCount() + " copies avoided");
 
-          String outputZipFileName = htmlOutput.getOutputZipFileName();
-          if (outputZipFileName != null && outputZipFileName.length() > 0) {
-            File tempOutputFolder = new File(Files.createTempDir(), Files.getNameWithoutExtension(outputZipFileName));
-            ParamPublishHtmlFiles param2 = new ParamPublishHtmlFiles();
-            param2.setInFolder(inputSource.getInputFolder());
-            param2.setInFiles(pageListMap.get(htmlOutput));
-            param2.setOutFolder(tempOutputFolder);
-            param2.setCssReplacement(cssReplacementMap);
-            param2.setFixXrefLinks(inputSource.getFixXrefLinks() == null ? true : inputSource.getFixXrefLinks().booleanValue());
-            param2.setFixExternalLinks(inputSource.getFixExternalLinks() == null ? true : inputSource.getFixExternalLinks().booleanValue());
-            PublishUtility.publishHtmlFiles(param2);
-
-            File destZipFile = new File(htmlOutputFolder, outputZipFileName);
-            ZipUtility.zipFolder(tempOutputFolder, destZipFile);
-            getLog().info("Folder <" + tempOutputFolder.getAbsolutePath() + "> zipped as " + destZipFile.getAbsolutePath());
+          if (zipSink != null) {
+            long start = System.nanoTime();
+            zipSink.close();
+            zipWritten = true;
+            statistics.addTimeSince(PublishStatistics.Stage.ZIP, start);
+            getLog().info("HTML InputSource <" + inputSource.getInputFolder().getAbsolutePath() + "> zipped as " + new File(htmlOutputFolder, outputZipFileName).getAbsolutePath());
+            for (ParallelZipWriter.TypeStatistics typeStatistics : zipSink.getStatistics()) {
+              getLog().info("Zip " + typeStatistics);
+            }
+          }
+          if (htmlOutput.getPrecompress() != null && htmlOutput.getPrecompress().booleanValue()) {
+            //only the files written or copied since the previous run are compressed:
+            long start = System.nanoTime();
+            int count = PrecompressedFiles.compressFolder(htmlOutputFolder, Runtime.getRuntime().availableProcessors());
+            statistics.addTimeSince(PublishStatistics.Stage.PRECOMPRESS, start);
+            statistics.increment(PublishStatistics.Counter.PRECOMPRESSED_FILES, count);
+            getLog().info("HTML InputSource <" + inputSource.getInputFolder().getAbsolutePath() + "> precompressed (" + count + " files)");
           }
         }
         catch (IOException e) {
-          new MojoFailureException("Could not publish inputSource <" + inputSource.getInputFolder().getAbsolutePath() + "> to HTML", e);
+          throw new MojoFailureException("Could not publish inputSource <" + inputSource.getInputFolder().getAbsolutePath() + "> to HTML", e);
+        }
+        finally {
+          if (zipSink != null && !zipWritten) {
+            //the incomplete zip file is deleted:
+            try {
+              zipSink.abort();
+            }
+            catch (IOException e) {
+              getLog().warn("Could not delete the incomplete zip file: " + new File(htmlOutputFolder, outputZipFileName).getAbsolutePath(), e);
+            }
+          }
         }
       }
 
@@ -151,14 +218,29 @@ public class HtmltoolsMojo extends AbstractMojo {
 
         File pdfOutputFolder = computeSubFolder(inputSourceOutputFolder, pdfOutput.getOutputSubFolder());
         try {
-          PublishUtility.publishPdfFiles(inputSource.getInputFolder(), pdfOutputFolder);
+          long start = System.nanoTime();
+          PublishUtility.publishPdfFiles(inputSource.getInputFolder(), pdfOutputFolder, copyStrategy);
+          statistics.addTimeSince(PublishStatistics.Stage.PDF, start);
           getLog().info("PDF InputSource <" + inputSource.getInputFolder().getAbsolutePath() + "> to " + pdfOutputFolder.getAbsolutePath());
         }
         catch (IOException e) {
-          new MojoFailureException("Could not publish inputSource <" + inputSource.getInputFolder().getAbsolutePath() + "> to PDF", e);
+          throw new MojoFailureException("Could not publish inputSource <" + inputSource.getInputFolder().getAbsolutePath() + "> to PDF", e);
         }
       }
     }
+
+    statistics.stop();
+    for (String line : statistics.formatSummary(SLOWEST_PAGES)) {
+      getLog().info(line);
+    }
+    if (statisticsFile != null) {
+      try {
+        statistics.writeJson(statisticsFile, SLOWEST_PAGES);
+      }
+      catch (IOException e) {
+        getLog().warn("Could not write the statistics file: " + statisticsFile.getAbsolutePath(), e);
+      }
+    }
   }
 
   private static File computeSubFolder(File folder, String subPath) {
@@ -26,6 +26,7 @@ public class InputSource {
   static final String HTML_OUTPUT = "htmlOutput";
   static final String FIX_XREF_LINKS = "fixXrefLinks";
   static final String FIX_EXTERNAL_LINKS = "fixExternalLinks";
+  static final String CHARSET = "charset";
 
   @Parameter(property = INPUT_FOLDER, required = true)
   private File inputFolder;
@@ -48,6 +49,9 @@ public class InputSource {
   @Parameter(property = FIX_EXTERNAL_LINKS, defaultValue = "false")
   private Boolean fixExternalLinks;
 
+  @Parameter(property = CHARSET)
+  private String charset;
+
   public File getInputFolder() {
     return inputFolder;
   }
@@ -75,4 +79,11 @@ public class InputSource {
   public Boolean getFixExternalLinks() {
     return fixExternalLinks;
   }
+
+  /**
+   * @return the charset of the HTML files, null to detect it from the BOM or the meta tag of each file.
+   */
+  public String getCharset() {
+    return charset;
+  }
 }
@@ -0,0 +1,202 @@
+/*******************************************************************************
+ * Copyright (c) 2016 Jeremie Bresson.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Jeremie Bresson - initial API and implementation
+ ******************************************************************************/
+package com.bsiag.htmltools.internal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+public class ParallelZipWriterTest {
+
+  /**
+   * @return content compressing well, with some random parts, spanning several chunks.
+   */
+  private static byte[] createContent(int size) {
+    Random random = new Random(42);
+    byte[] content = new byte[size];
+    for (int i = 0; i < size; i++) {
+      content[i] = (i / 1000) % 3 == 0 ? (byte) random.nextInt() : (byte) ("<p>Lorem ipsum</p>\n".charAt(i % 19));
+    }
+    return content;
+  }
+
+  private static byte[] zip(int threads, byte[]... contents) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (ParallelZipWriter writer = new ParallelZipWriter(out, 6, threads)) {
+      for (int i = 0; i < contents.length; i++) {
+        writer.putEntry("root/entry" + i, ByteSource.wrap(contents[i]), 1500000000000L);
+      }
+    }
+    return out.toByteArray();
+  }
+
+  @Test
+  public void testEntries() throws Exception {
+    byte[] empty = new byte[0];
+    byte[] small = "<html>small</html>".getBytes(Charsets.UTF_8);
+    byte[] chunk = createContent(ParallelZipWriter.CHUNK_SIZE);
+    byte[] large = createContent(5 * ParallelZipWriter.CHUNK_SIZE + 123);
+    byte[] zip = zip(4, empty, small, chunk, large);
+
+    File zipFile = File.createTempFile("parallel", ".zip");
+    Files.write(zip, zipFile);
+    try (ZipFile file = new ZipFile(zipFile)) {
+      List<String> names = new ArrayList<>();
+      for (ZipEntry entry : Collections.list(file.entries())) {
+        names.add(entry.getName());
+      }
+      assertEquals("[root/entry0, root/entry1, root/entry2, root/entry3]", names.toString());
+      assertArrayEquals(empty, ByteStreams.toByteArray(file.getInputStream(file.getEntry("root/entry0"))));
+      assertArrayEquals(small, ByteStreams.toByteArray(file.getInputStream(file.getEntry("root/entry1"))));
+      assertArrayEquals(chunk, ByteStreams.toByteArray(file.getInputStream(file.getEntry("root/entry2"))));
+      assertArrayEquals(large, ByteStreams.toByteArray(file.getInputStream(file.getEntry("root/entry3"))));
+      assertTrue("compressed", file.getEntry("root/entry3").getCompressedSize() < large.length / 2);
+    }
+
+    //streaming read (uses the data descriptors):
+    try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip))) {
+      assertEquals("root/entry0", in.getNextEntry().getName());
+      assertArrayEquals(empty, ByteStreams.toByteArray(in));
+      assertEquals("root/entry1", in.getNextEntry().getName());
+      assertArrayEquals(small, ByteStreams.toByteArray(in));
+      assertEquals("root/entry2", in.getNextEntry().getName());
+      assertArrayEquals(chunk, ByteStreams.toByteArray(in));
+      assertEquals("root/entry3", in.getNextEntry().getName());
+      assertArrayEquals(large, ByteStreams.toByteArray(in));
+    }
+  }
+
+  @Test
+  public void testDeterministic() throws Exception {
+    byte[] large = createContent(3 * ParallelZipWriter.CHUNK_SIZE + 7);
+    byte[] small = "<html>small</html>".getBytes(Charsets.UTF_8);
+    byte[] expected = zip(1, small, large, small);
+    assertArrayEquals(expected, zip(3, small, large, small));
+    assertArrayEquals(expected, zip(8, small, large, small));
+  }
+
+  @Test
+  public void testStoredEntries() throws Exception {
+    byte[] image = new byte[1000];
+    new Random(1).nextBytes(image);
+    byte[] random = new byte[2 * ParallelZipWriter.CHUNK_SIZE + 5];
+    new Random(2).nextBytes(random);
+    byte[] page = createContent(10000);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ParallelZipWriter writer = new ParallelZipWriter(out, 6, 2);
+    try {
+      writer.putEntry("doc/images/logo.PNG", image);
+      writer.putEntry("doc/data.bin", random);
+      writer.putEntry("doc/index.html", page);
+    }
+    finally {
+      writer.close();
+    }
+
+    try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+      ZipEntry entry = in.getNextEntry();
+      assertEquals("stored by extension", ZipEntry.STORED, entry.getMethod());
+      assertArrayEquals(image, ByteStreams.toByteArray(in));
+      entry = in.getNextEntry();
+      assertEquals("stored by entropy", ZipEntry.STORED, entry.getMethod());
+      assertArrayEquals(random, ByteStreams.toByteArray(in));
+      entry = in.getNextEntry();
+      assertEquals("deflated", ZipEntry.DEFLATED, entry.getMethod());
+      assertArrayEquals(page, ByteStreams.toByteArray(in));
+    }
+
+    Map<String, ParallelZipWriter.TypeStatistics> statistics = writer.getStatistics();
+    assertEquals("[bin, html, png]", statistics.keySet().toString());
+    assertEquals("stored by entropy", 1, statistics.get("bin").getStoredEntries());
+    assertEquals(1, statistics.get("png").getStoredEntries());
+    assertEquals(1000, statistics.get("png").getCompressedSize());
+    assertEquals(0, statistics.get("html").getStoredEntries());
+    assertTrue("html compressed", statistics.get("html").getRatio() < 0.5);
+  }
+
+  @Test
+  public void testCompressionPolicy() throws Exception {
+    ZipCompressionPolicy policy = ZipCompressionPolicy.defaultPolicy();
+    byte[] text = createContent(ZipCompressionPolicy.MIN_SNIFF_LENGTH);
+    byte[] random = new byte[ZipCompressionPolicy.MIN_SNIFF_LENGTH];
+    new Random(3).nextBytes(random);
+    assertTrue(policy.isStored("doc/manual.pdf", text, text.length));
+    assertTrue(policy.isStored("doc/data", random, random.length));
+    assertFalse(policy.isStored("doc/index.html", text, text.length));
+    assertFalse("too short to sniff", policy.isStored("doc/data", random, 100));
+    assertFalse(ZipCompressionPolicy.deflateAll().isStored("doc/manual.pdf", random, random.length));
+    assertEquals("", ZipCompressionPolicy.getType("doc.v1/README"));
+    assertEquals("", ZipCompressionPolicy.getType("doc/.htaccess"));
+    assertEquals("gif", ZipCompressionPolicy.getType("images/Next.GIF"));
+  }
+
+  @Test
+  public void testZip64EntryCount() throws Exception {
+    File zipFile = File.createTempFile("parallel64", ".zip");
+    int count = 0x10000 + 10;
+    try (ParallelZipWriter writer = new ParallelZipWriter(new FileOutputStream(zipFile), 1, 4)) {
+      for (int i = 0; i < count; i++) {
+        writer.putEntry("e" + i, new byte[] {(byte) i});
+      }
+    }
+    try (ZipFile file = new ZipFile(zipFile)) {
+      assertEquals(count, file.size());
+      ZipEntry last = file.getEntry("e" + (count - 1));
+      assertNotNull(last);
+      assertEquals((byte) (count - 1), ByteStreams.toByteArray(file.getInputStream(last))[0]);
+    }
+  }
+
+  @Test
+  public void testZipFolder() throws Exception {
+    File folder = new File(Files.createTempDir(), "doc");
+    File page = new File(folder, "index.html");
+    Files.createParentDirs(page);
+    Files.write("<html>index</html>", page, Charsets.UTF_8);
+    File image = new File(new File(folder, "images"), "logo.png");
+    Files.createParentDirs(image);
+    Files.write(createContent(1000), image);
+
+    File zipFile = new File(Files.createTempDir(), "doc.zip");
+    ZipUtility.zipFolder(folder, zipFile, 9, 2);
+    try (ZipFile file = new ZipFile(zipFile)) {
+      List<String> names = new ArrayList<>();
+      for (ZipEntry entry : Collections.list(file.entries())) {
+        names.add(entry.getName());
+      }
+      assertEquals("[doc/images/logo.png, doc/index.html]", names.toString());
+      assertEquals("<html>index</html>", new String(ByteStreams.toByteArray(file.getInputStream(file.getEntry("doc/index.html"))), Charsets.UTF_8));
+    }
+  }
+}
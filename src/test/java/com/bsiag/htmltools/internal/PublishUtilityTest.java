@@ -12,13 +12,21 @@ package com.bsiag.htmltools.internal;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
@@ -26,13 +34,25 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.junit.Test;
 
 import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
 import com.google.common.io.Files;
+import com.google.common.io.Resources;
 
 public class PublishUtilityTest {
 
@@ -78,6 +98,39 @@ public class PublishUtilityTest {
     assertEquals(expected, result);
   }
 
+  @Test
+  public void testXrefLinksSinglePass() throws Exception {
+    String html = readFile("/listing-input.html") + readFile("/figure-input.html") + readFile("/table-input.html");
+    String expected = readFile("/listing-expected.html") + readFile("/figure-expected.html") + readFile("/table-expected.html");
+
+    Document doc = Jsoup.parseBodyFragment(html);
+    doc.outputSettings().prettyPrint(false);
+
+    XrefIndex index = new XrefIndex(doc);
+    new DomRewriter()
+        .register(PublishUtility.createListingLinkFix(index), "a")
+        .register(PublishUtility.createFigureLinkFix(index), "a")
+        .register(PublishUtility.createTableLinkFix(index), "a")
+        .rewrite(doc);
+
+    String result = doc.body().html();
+    assertEquals(expected, result);
+  }
+
+  @Test
+  public void testXrefIndex() throws Exception {
+    Document doc = Jsoup.parseBodyFragment("<div id=\"a\"><div class=\"title\">First <em>A</em></div></div>"
+        + "<div id=\"b\"><table><caption class=\"title\">Caption B</caption></table><div class=\"title\">Title B</div></div>"
+        + "<p id=\"a\">Duplicated id</p><div id=\"c\"><p>No title</p></div>");
+    XrefIndex index = new XrefIndex(doc);
+
+    assertEquals("div", index.getElementById("a").tagName());
+    assertEquals(null, index.getElementById("x"));
+    assertEquals("First A", index.getTitle(index.getElementById("a")));
+    assertEquals("Title B", index.getTitle(index.getElementById("b")));
+    assertEquals(null, index.getTitle(index.getElementById("c")));
+  }
+
   @Test
   public void testFixExternalLink() throws Exception {
     String html = "<p>The <a href=\"http://example.com\">Link 1</a>, <a href=\"https://example.com\">Link 2</a> and <a href=\"ftp://example.com\">Link 3</a> are important. <a href=\"page.html\">Link</a> is not</p>.";
@@ -108,11 +161,59 @@ public class PublishUtilityTest {
     assertEquals(expected, result);
   }
 
+  @Test
+  public void testTrimTrailingWhitespacesWriter() throws Exception {
+    String[] contents = {"", " ", "\n", "a \n\n b", "a\r\n\r\n\tb\r\n", "a \r \n b", "a \u0001 \n b", "a \u0085b \u2028c\t", " \n a\u000B\f\n", "\n\na  \r\rb\n"};
+    for (String content : contents) {
+      assertEquals(content.replaceAll("(?m)\\s+$", ""), PublishUtility.trimTrailingWhitespaces(content));
+
+      StringWriter result = new StringWriter();
+      try (Writer writer = new TrimTrailingWhitespacesWriter(result, true)) {
+        writer.write(content);
+      }
+      assertEquals(content.trim().replaceAll("(?m)\\s+$", ""), result.toString());
+    }
+  }
+
   private static final List<String> LINES1 = Arrays.asList("Lorem", "Ipsum", "Dolor");
   private static final List<String> LINES2 = Arrays.asList("Lorem", "Ipsum", "Dolor");
   private static final List<String> LINES3 = Arrays.asList("Lorem", "Ipsum");
   private static final List<String> LINES4 = Arrays.asList("Lorem", "XXX");
 
+  @Test
+  public void testHasModificationsFiles() throws Exception {
+    String[] contents = {"a\nb\n", "a\nb", "a\r\nb", "a\nc\n", "a\nb\n\n", "a\n <br /> Last updated 2016-01-01\n", "a\n<br /> Last updated 2016-02-02", "a\n<br /> Last updated\n", ""};
+    File folder = Files.createTempDir();
+    for (int i = 0; i < contents.length; i++) {
+      for (int j = 0; j < contents.length; j++) {
+        File file1 = new File(folder, "file" + i + "_" + j + "_1.html");
+        File file2 = new File(folder, "file" + i + "_" + j + "_2.html");
+        Files.write(contents[i], file1, Charsets.UTF_8);
+        Files.write(contents[j], file2, Charsets.UTF_8);
+        boolean expected = PublishUtility.hasModifications(Files.readLines(file1, Charsets.UTF_8), Files.readLines(file2, Charsets.UTF_8));
+        String message = "<" + contents[i] + "> and <" + contents[j] + ">";
+        HtmlContentComparator comparator = new HtmlContentComparator();
+        assertEquals(message, expected, comparator.hasModifications(file1, file2));
+        //second call uses the cached digests (if the files are equal):
+        assertEquals(message, expected, comparator.hasModifications(file1, file2));
+        assertEquals(message, expected, !comparator.digest(file1).equals(comparator.digest(file2)));
+        assertEquals(message, expected, PublishUtility.hasModifications(file1, file2));
+      }
+    }
+
+    //the digests are cached by a comparator (one run), a file rewritten with the same size and modification time is read again by the next run:
+    File file1 = new File(folder, "same1.html");
+    File file2 = new File(folder, "same2.html");
+    Files.write("a\nb\n", file1, Charsets.UTF_8);
+    Files.write("a\nb\n", file2, Charsets.UTF_8);
+    assertFalse(new HtmlContentComparator().hasModifications(file1, file2));
+    long modified = file2.lastModified();
+    Files.write("a\nc\n", file2, Charsets.UTF_8);
+    file2.setLastModified(modified);
+    assertTrue(new HtmlContentComparator().hasModifications(file1, file2));
+    assertTrue(PublishUtility.hasModifications(file1, file2));
+  }
+
   @Test
   public void testHasModificationsList() throws Exception {
     assertFalse(PublishUtility.hasModifications(LINES1, LINES2));
@@ -190,6 +291,581 @@ public class PublishUtilityTest {
     assertEquals("actions contains a delete task for sub/", false, actions.contains(FileAction.remove(new File(output, "sub"))));
   }
 
+  @Test
+  public void testComputeActionsDeterministic() throws Exception {
+    File input = Files.createTempDir();
+    File output = Files.createTempDir();
+    for (int i = 0; i < 20; i++) {
+      File folder = new File(input, "folder" + (i % 4) + "/sub" + (i % 3));
+      writeFile(new File(folder, "page" + i + ".html"), "page " + i);
+      if (i % 2 == 0) {
+        writeFile(new File(folder, "page" + i + ".pdf"), "pdf " + i);
+      }
+      if (i % 5 == 0) {
+        writeFile(new File(folder, "page" + i + ".zip"), "zip " + i);
+      }
+      //output: some pages are equal, some are modified, some are missing
+      if (i % 3 != 0) {
+        writeFile(new File(output, "folder" + (i % 4) + "/sub" + (i % 3) + "/page" + i + ".html"), i % 3 == 1 ? "page " + i : "old page " + i);
+      }
+    }
+    writeFile(new File(output, "folder1/removed.html"), "removed");
+    writeFile(new File(output, "folder1/removed.pdf"), "removed");
+    writeFile(new File(output, "folder1/index.html"), "index");
+    writeFile(new File(output, "removed_folder/page.html"), "removed");
+
+    List<FileAction> expected = PublishUtility.computeActions(input, output, true, 1);
+    assertEquals(expected, PublishUtility.computeActions(input, output, true, 4));
+    assertEquals("the number of threads is at least 1", expected, PublishUtility.computeActions(input, output, true, 0));
+    assertTrue(expected.contains(FileAction.copy(new File(input, "folder0/sub0/page0.html"), new File(output, "folder0/sub0/page0.html"))));
+    assertTrue(expected.contains(FileAction.copy(new File(input, "folder0/sub0/page0.pdf"), new File(output, "folder0/sub0/page0.pdf"))));
+    assertTrue(expected.contains(FileAction.copy(new File(input, "folder0/sub0/page0.zip"), new File(output, "folder0/sub0/page0.zip"))));
+    assertFalse("unchanged", expected.contains(FileAction.copy(new File(input, "folder1/sub1/page1.html"), new File(output, "folder1/sub1/page1.html"))));
+    assertTrue("modified", expected.contains(FileAction.copy(new File(input, "folder2/sub2/page2.html"), new File(output, "folder2/sub2/page2.html"))));
+    assertTrue(expected.contains(FileAction.remove(new File(output, "folder1/removed.html"))));
+    assertTrue(expected.contains(FileAction.remove(new File(output, "folder1/removed.pdf"))));
+    assertFalse(expected.contains(FileAction.remove(new File(output, "folder1/index.html"))));
+    assertTrue(expected.contains(FileAction.remove(new File(output, "removed_folder"))));
+    //13 modified or missing pages with 7 pdf and 3 zip companions, 3 removals:
+    assertEquals(13 + 7 + 3 + 3, expected.size());
+  }
+
+  @Test
+  public void testFileActionExecutorGroups() throws Exception {
+    File root = new File("/tmp/root");
+    FileAction removeFolder = FileAction.remove(new File(root, "a"));
+    FileAction copyInFolder = FileAction.copy(new File("in/x.html"), new File(root, "a/x.html"));
+    FileAction copyOther = FileAction.copy(new File("in/y.html"), new File(root, "b/y.html"));
+    FileAction copySibling = FileAction.copy(new File("in/z.html"), new File(root, "b/z.html"));
+    FileAction removeSibling = FileAction.remove(new File(root, "b/z.html"));
+    List<List<FileAction>> groups = FileActionExecutor.computeGroups(Arrays.asList(copyInFolder, copyOther, removeFolder, copySibling, removeSibling));
+    assertEquals(3, groups.size());
+    assertEquals(Arrays.asList(copyInFolder, removeFolder), groups.get(0));
+    assertEquals(Arrays.asList(copyOther), groups.get(1));
+    assertEquals(Arrays.asList(copySibling, removeSibling), groups.get(2));
+  }
+
+  @Test
+  public void testFileActionExecutor() throws Exception {
+    File input = Files.createTempDir();
+    File output = Files.createTempDir();
+    List<FileAction> actions = new ArrayList<>();
+    for (int i = 0; i < 200; i++) {
+      File from = new File(input, "folder" + (i % 7) + "/page" + i + ".html");
+      writeFile(from, "page " + i);
+      actions.add(FileAction.copy(from, new File(output, "folder" + (i % 7) + "/page" + i + ".html")));
+    }
+    //must be executed after the copy of the same file:
+    actions.add(FileAction.remove(new File(output, "folder3/page3.html")));
+    new FileActionExecutor(4, CopyStrategy.COPY).execute(actions);
+    assertEquals("page 10", Files.toString(new File(output, "folder3/page10.html"), Charsets.UTF_8));
+    assertEquals("page 199", Files.toString(new File(output, "folder3/page199.html"), Charsets.UTF_8));
+    assertFalse(new File(output, "folder3/page3.html").exists());
+
+    //all actions are executed, the failures are reported together ('blocker' is a file, not a folder):
+    writeFile(new File(output, "blocker"), "file");
+    List<FileAction> failing = Arrays.asList(
+        FileAction.copy(new File(input, "folder0/page0.html"), new File(output, "blocker/page0.html")),
+        FileAction.copy(new File(input, "folder0/page0.html"), new File(output, "copy/page0.html")),
+        FileAction.copy(new File(input, "folder1/page1.html"), new File(output, "blocker/page1.html")));
+    try {
+      new FileActionExecutor(4, CopyStrategy.COPY).execute(failing);
+      fail("IOException expected");
+    }
+    catch (IOException e) {
+      assertEquals(1, e.getSuppressed().length);
+    }
+    assertTrue(new File(output, "copy/page0.html").exists());
+  }
+
+  @Test
+  public void testConcurrentTasksWaitFor() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      assertEquals("done", ConcurrentTasks.waitFor(executor.submit(new Callable<String>() {
+        @Override
+        public String call() {
+          return "done";
+        }
+      }), "testing"));
+      final IOException ioException = new IOException("io");
+      try {
+        ConcurrentTasks.waitFor(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            throw ioException;
+          }
+        }), "testing");
+        fail("IOException expected");
+      }
+      catch (IOException e) {
+        assertSame("rethrown as thrown by the task", ioException, e);
+      }
+      final Exception checked = new Exception("checked");
+      try {
+        ConcurrentTasks.waitFor(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            throw checked;
+          }
+        }), "testing");
+        fail("IOException expected");
+      }
+      catch (IOException e) {
+        assertSame(checked, e.getCause());
+      }
+    }
+    finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testSyncIndex() throws Exception {
+    File input = Files.createTempDir();
+    File output = new File(Files.createTempDir(), "out");
+    for (int i = 0; i < 10; i++) {
+      writeFile(new File(input, "folder" + (i % 2) + "/page" + i + ".html"), "page " + i + "\n<br /> Last updated " + i);
+    }
+    File indexFile = SyncIndex.defaultIndexFile(output);
+    assertEquals(new File(output.getParentFile(), "out.htmltools-index"), indexFile);
+
+    SyncIndex index = SyncIndex.load(indexFile, output);
+    List<FileAction> actions = PublishUtility.computeActions(input, output, true, 2, index);
+    assertEquals(10, actions.size());
+    PublishUtility.doActions(actions, CopyStrategy.COPY, 2);
+    index.update(actions);
+    index.save();
+
+    //only the volatile line is changed, the index is used instead of the output files:
+    writeFile(new File(input, "folder0/page0.html"), "page 0\n<br /> Last updated 42");
+    writeFile(new File(input, "folder1/page1.html"), "page 1 (modified)");
+    new File(input, "folder0/page2.html").delete();
+    index = SyncIndex.load(indexFile, output);
+    assertEquals(10, index.size());
+    actions = PublishUtility.computeActions(input, output, true, 2, index);
+    assertEquals(Arrays.asList(FileAction.remove(new File(output, "folder0/page2.html")), FileAction.copy(new File(input, "folder1/page1.html"), new File(output, "folder1/page1.html"))), actions);
+    PublishUtility.doActions(actions, CopyStrategy.COPY, 2);
+    index.update(actions);
+    index.save();
+
+    //modification outside of the tool, the output file does not match its entry:
+    File page4 = new File(output, "folder0/page4.html");
+    writeFile(page4, "changed by someone else");
+    page4.setLastModified(page4.lastModified() - 10000);
+    index = SyncIndex.load(indexFile, output);
+    assertEquals(9, index.size());
+    assertEquals(Arrays.asList(FileAction.copy(new File(input, "folder0/page4.html"), page4)), PublishUtility.computeActions(input, output, true, 2, index));
+    assertEquals("entry dropped", 8, index.size());
+
+    //only the modification time was changed, the files are compared by content and the entry is computed again:
+    File page6 = new File(output, "folder0/page6.html");
+    page6.setLastModified(page6.lastModified() - 10000);
+    index = SyncIndex.load(indexFile, output);
+    assertEquals(Arrays.asList(FileAction.copy(new File(input, "folder0/page4.html"), page4)), PublishUtility.computeActions(input, output, true, 2, index));
+    index.save();
+
+    //verify mode: the complete output folder is scanned, the entry of page4 is added again:
+    index = SyncIndex.load(indexFile, output);
+    assertEquals(8, index.size());
+    assertEquals(1, index.verify());
+    assertEquals(9, index.size());
+    assertEquals(Arrays.asList(FileAction.copy(new File(input, "folder0/page4.html"), page4)), PublishUtility.computeActions(input, output, true, 2, index));
+  }
+
+  @Test
+  public void testPrecompressedFiles() throws Exception {
+    File input = Files.createTempDir();
+    File output = Files.createTempDir();
+    String page = Strings.repeat("<p>Lorem ipsum dolor sit amet</p>\n", 100);
+    writeFile(new File(input, "page1.html"), page);
+    writeFile(new File(input, "page2.html"), page);
+    writeFile(new File(input, "images/logo.svg"), "<svg>" + Strings.repeat("<g/>", 100) + "</svg>");
+    writeFile(new File(input, "images/logo.png"), Strings.repeat("png", 100));
+    writeFile(new File(input, "css/tiny.css"), "a{}");
+
+    List<FileAction> actions = PublishUtility.computeActions(input, output, true, 2, null);
+    actions.add(FileAction.copy(new File(input, "images"), new File(output, "images")));
+    actions.add(FileAction.copy(new File(input, "css"), new File(output, "css")));
+    PublishUtility.doActions(actions, CopyStrategy.COPY, 2);
+    assertEquals(3, PrecompressedFiles.compressTargets(actions, 2));
+
+    File page1 = new File(output, "page1.html");
+    File sidecar = PrecompressedFiles.sidecar(page1);
+    try (InputStream in = new GZIPInputStream(new FileInputStream(sidecar))) {
+      assertEquals(page, new String(ByteStreams.toByteArray(in), Charsets.UTF_8));
+    }
+    assertEquals(page1.lastModified(), sidecar.lastModified());
+    assertTrue(new File(output, "images/logo.svg.gz").exists());
+    assertFalse("not compressible", new File(output, "images/logo.png.gz").exists());
+    assertFalse("too small", new File(output, "css/tiny.css.gz").exists());
+    assertEquals(0, PrecompressedFiles.compressFolder(output, 2));
+
+    //the synchronized folders keep the sidecars of the unchanged files:
+    List<FileAction> imagesActions = Arrays.asList(FileAction.copy(new File(input, "images"), new File(output, "images")));
+    PublishUtility.doActions(imagesActions, CopyStrategy.COPY, 2);
+    assertTrue(new File(output, "images/logo.svg.gz").exists());
+    assertEquals(0, PrecompressedFiles.compressTargets(imagesActions, 2));
+
+    //the sidecars of replaced and removed files are deleted by the actions:
+    writeFile(new File(input, "page1.html"), page + "<p>Modified</p>\n");
+    new File(input, "page2.html").delete();
+    actions = PublishUtility.computeActions(input, output, true, 2, null);
+    PublishUtility.doActions(actions, CopyStrategy.COPY, 2);
+    assertFalse(sidecar.exists());
+    assertFalse(new File(output, "page2.html.gz").exists());
+    assertEquals(1, PrecompressedFiles.compressTargets(actions, 2));
+    assertTrue(sidecar.exists());
+
+    //a file modified by another tool:
+    writeFile(page1, page);
+    page1.setLastModified(sidecar.lastModified() - 10000);
+    new File(output, "images/logo.svg").delete();
+    assertEquals(1, PrecompressedFiles.compressFolder(output, 2));
+    assertFalse("sidecar of a removed file", new File(output, "images/logo.svg.gz").exists());
+
+    //a file that became too small:
+    writeFile(page1, "<p>Short</p>");
+    assertEquals(0, PrecompressedFiles.compressFolder(output, 2));
+    assertFalse(sidecar.exists());
+  }
+
+  @Test
+  public void testPublishStatistics() throws Exception {
+    File inFolder = new File(PublishUtilityTest.class.getResource("/pages").toURI());
+    File outFolder = Files.createTempDir();
+    PublishStatistics statistics = new PublishStatistics();
+    ParamPublishHtmlFiles param = new ParamPublishHtmlFiles();
+    param.setInFolder(inFolder);
+    param.setOutFolder(outFolder);
+    param.setCssReplacement(Collections.<String, File> emptyMap());
+    param.setFixXrefLinks(true);
+    param.setStatistics(statistics);
+    PublishUtility.publishHtmlFiles(param);
+    statistics.stop();
+
+    assertEquals(2, statistics.getCount(PublishStatistics.Counter.PAGES_PUBLISHED));
+    assertEquals(2068, statistics.getCount(PublishStatistics.Counter.BYTES_IN));
+    assertEquals(new File(outFolder, "example1.html").length() + new File(outFolder, "example2.html").length(), statistics.getCount(PublishStatistics.Counter.BYTES_OUT));
+    assertTrue(statistics.getTime(PublishStatistics.Stage.PARSE) > 0);
+    assertTrue(statistics.getTime(PublishStatistics.Stage.SERIALIZE) > 0);
+    assertEquals(1, statistics.getSlowestPages(1).size());
+    assertTrue(statistics.formatSummary(5).contains("Assets: 0 copied, 0 skipped"));
+
+    String json = statistics.toJson(5);
+    assertTrue(json, json.contains("\"pagesPublished\": 2,"));
+    assertTrue(json, json.contains("\"xrefIndex\": "));
+    assertTrue(json, json.contains("{\"name\": \"example"));
+    assertEquals("a\\\"b\\u000a", PublishStatistics.escapeJson("a\"b\n"));
+  }
+
+  @Test
+  public void testPublishStatisticsZipSink() throws Exception {
+    //default options of the mojo with a zip: each page is counted once, with the size written in the out folder.
+    List<File> pages = Arrays.asList(new File("src/test/resources/pages/example1.html"), new File("src/test/resources/pages/example2.html"));
+    File outFolder = Files.createTempDir();
+    PublishStatistics statistics = new PublishStatistics();
+    ParamPublishHtmlFiles param = new ParamPublishHtmlFiles();
+    param.setInFolder(new File("src/test/resources/pages"));
+    param.setInFiles(pages);
+    param.setOutFolder(outFolder);
+    param.setCssReplacement(Collections.<String, File> emptyMap());
+    param.setFixXrefLinks(true);
+    param.setStatistics(statistics);
+    try (ZipSink zipSink = new ZipSink(new File(Files.createTempDir(), "doc.zip"), "doc")) {
+      zipSink.setFixExternalLinks(true);
+      param.setSinks(Collections.<PublishSink> singletonList(zipSink));
+      PublishUtility.publishHtmlFiles(param);
+    }
+    statistics.stop();
+
+    assertEquals(pages.size(), statistics.getCount(PublishStatistics.Counter.PAGES_PUBLISHED));
+    assertEquals(2068, statistics.getCount(PublishStatistics.Counter.BYTES_IN));
+    List<String> names = new ArrayList<>();
+    for (PublishStatistics.PageStatistics page : statistics.getSlowestPages(10)) {
+      names.add(page.getName());
+      assertEquals(new File(outFolder, page.getName()).length(), page.getBytesOut());
+    }
+    Collections.sort(names);
+    assertEquals(Arrays.asList("example1.html", "example2.html"), names);
+  }
+
+  @Test
+  public void testOutputMode() throws Exception {
+    File inFolder = Files.createTempDir();
+    String text = "Gr\u00f6\u00dfe &amp; \u65e5\u672c\u8a9e";
+    writeFile(new File(inFolder, "page.html"), "<!DOCTYPE html>\n<html>\n<head>\n<meta charset=\"ISO-8859-1\">\n<title>Title</title>\n</head>\n<body>\n<div class=\"paragraph\">\n<p>" + text + "</p>\n</div>\n<pre>  line 1  \n    line 2</pre>\n</body>\n</html>\n");
+
+    File prettyFolder = Files.createTempDir();
+    publishWithOutputMode(inFolder, prettyFolder, "UTF-8", OutputMode.PRETTY_ASCII);
+    String pretty = Files.toString(new File(prettyFolder, "page.html"), Charsets.UTF_8);
+    assertTrue(pretty, pretty.contains("Gr&ouml;&szlig;e &amp; &#x65e5;&#x672c;&#x8a9e;"));
+
+    File compactFolder = Files.createTempDir();
+    publishWithOutputMode(inFolder, compactFolder, "UTF-8", OutputMode.COMPACT_UTF8);
+    String compact = Files.toString(new File(compactFolder, "page.html"), Charsets.UTF_8);
+    assertTrue(compact, compact.contains("<meta charset=\"UTF-8\">"));
+    assertTrue(compact, compact.contains("<div class=\"paragraph\">\n<p>" + text + "</p>\n</div>"));
+    assertTrue(compact, compact.contains("<pre>  line 1  \n    line 2</pre>"));
+    assertTrue(compact.getBytes(Charsets.UTF_8).length < pretty.getBytes(Charsets.UTF_8).length);
+  }
+
+  private static void publishWithOutputMode(File inFolder, File outFolder, String charset, OutputMode outputMode) throws IOException {
+    ParamPublishHtmlFiles param = new ParamPublishHtmlFiles();
+    param.setInFolder(inFolder);
+    param.setOutFolder(outFolder);
+    param.setCssReplacement(Collections.<String, File> emptyMap());
+    param.setCharset(charset);
+    param.setOutputMode(outputMode);
+    PublishUtility.publishHtmlFiles(param);
+  }
+
+  @Test
+  public void testMinify() throws Exception {
+    String listing = "<span class=\"directive\">public</span> <span class=\"type\">int</span> compute() {\n    <span class=\"keyword\">return</span>  1;\n}";
+    String html = "<!DOCTYPE html>\n<html lang=\"en\">\n<head>\n<!-- generated -->\n<title>Title</title>\n</head>\n<body>\n"
+        + "<div class=\"paragraph\">\n<p>Some   <em>text</em> and <code>a  b</code>\n  here. </p>\n</div>\n"
+        + "<div class=\"listingblock\">\n<div class=\"content\">\n<pre class=\"CodeRay highlight\"><code data-lang=\"java\">" + listing + "</code></pre>\n</div>\n</div>\n"
+        + "<div class=\"literalblock\">\n<div class=\"content\">\n<pre>  indented\n    literal</pre>\n</div>\n</div>\n"
+        + "<div class=\"ulist\">\n<ul>\n<li>\n<p>one</p>\n</li>\n<li>\n<p>two</p>\n</li>\n</ul>\n</div>\n"
+        + "<table class=\"tableblock\">\n<tbody>\n<tr>\n<td class=\"tableblock\"><p class=\"tableblock\">1</p></td>\n<td><p>2</p></td>\n</tr>\n</tbody>\n</table>\n"
+        + "<input type=\"checkbox\" checked=\"checked\"> done\n</body>\n</html>\n";
+    Document doc = Jsoup.parse(html);
+    long savedBytes = HtmlMinifier.minify(doc);
+    StringBuilder sb = new StringBuilder();
+    HtmlMinifier.write(doc, sb);
+    String minified = sb.toString();
+
+    assertEquals("<!doctype html><html lang=\"en\"><head><title>Title</title><body>"
+        + "<div class=\"paragraph\"><p>Some <em>text</em> and <code>a  b</code> here.</div>"
+        + "<div class=\"listingblock\"><div class=\"content\"><pre class=\"CodeRay highlight\"><code data-lang=\"java\">" + listing + "</code></pre></div></div>"
+        + "<div class=\"literalblock\"><div class=\"content\"><pre>  indented\n    literal</pre></div></div>"
+        + "<div class=\"ulist\"><ul><li><p>one<li><p>two</ul></div>"
+        + "<table class=\"tableblock\"><tbody><tr><td class=\"tableblock\"><p class=\"tableblock\">1<td><p>2</table>"
+        + "<input type=\"checkbox\" checked> done", minified);
+
+    Document expected = Jsoup.parse(html);
+    Document actual = Jsoup.parse(minified);
+    assertEquals(expected.select("pre").outerHtml(), actual.select("pre").outerHtml());
+    assertEquals(2, actual.select("ul > li > p").size());
+    assertEquals(2, actual.select("tr > td > p").size());
+    assertEquals(expected.body().text(), actual.body().text());
+
+    //bytes saved compared to the serialization without pretty print:
+    Document compact = Jsoup.parse(html);
+    compact.outputSettings().prettyPrint(false);
+    assertEquals(compact.outerHtml().length() - minified.length(), savedBytes);
+  }
+
+  @Test
+  public void testMinifyPublish() throws Exception {
+    File inFolder = Files.createTempDir();
+    writeFile(new File(inFolder, "page.html"), "<!DOCTYPE html>\n<html>\n<head>\n<title>Title</title>\n</head>\n<body>\n<div class=\"paragraph\">\n<p>Text</p>\n</div>\n</body>\n</html>\n");
+    File outFolder = Files.createTempDir();
+    File zipFile = new File(Files.createTempDir(), "out.zip");
+
+    ParamPublishHtmlFiles param = new ParamPublishHtmlFiles();
+    param.setInFolder(inFolder);
+    param.setOutFolder(outFolder);
+    param.setCssReplacement(Collections.<String, File> emptyMap());
+    param.setOutputMode(OutputMode.COMPACT_UTF8);
+    param.setMinify(true);
+    PublishStatistics statistics = new PublishStatistics();
+    param.setStatistics(statistics);
+    try (ZipSink zipSink = new ZipSink(zipFile, "out")) {
+      zipSink.setMinify(true);
+      param.setSinks(Collections.<PublishSink> singletonList(zipSink));
+      PublishUtility.publishHtmlFiles(param);
+    }
+
+    String expected = "<!doctype html><html><head><title>Title</title><meta charset=\"UTF-8\"><body><div class=\"paragraph\"><p>Text</div>";
+    assertEquals(expected, Files.toString(new File(outFolder, "page.html"), Charsets.UTF_8));
+    try (ZipFile zip = new ZipFile(zipFile)) {
+      assertEquals(expected, new String(ByteStreams.toByteArray(zip.getInputStream(zip.getEntry("out/page.html"))), Charsets.UTF_8));
+    }
+    assertTrue(statistics.getCount(PublishStatistics.Counter.BYTES_SAVED_BY_MINIFY) > 0);
+    assertEquals(statistics.getCount(PublishStatistics.Counter.BYTES_SAVED_BY_MINIFY), statistics.getSlowestPages(1).get(0).getSavedBytes());
+  }
+
+  @Test
+  public void testFingerprintAssets() throws Exception {
+    HashCode hash = HashCode.fromString("3f9a1c2b4d5e6f708192a3b4c5d6e7f801234567");
+    assertEquals("css/asciidoctor.3f9a1c2b.css", AssetFingerprints.fingerprint("css/asciidoctor.css", hash));
+    assertEquals("images/logo.3f9a1c2b", AssetFingerprints.fingerprint("images/logo", hash));
+    assertEquals("images/.hidden.3f9a1c2b", AssetFingerprints.fingerprint("images/.hidden", hash));
+    for (String path : new String[]{"css/asciidoctor.css", "images/logo", "images/a.b.png", "images/.hidden", "logo.png"}) {
+      assertEquals(path, AssetFingerprints.logicalPath(AssetFingerprints.fingerprint(path, hash)));
+      assertEquals(path, AssetFingerprints.logicalPath(path));
+    }
+
+    File inFolder = Files.createTempDir();
+    writeFile(new File(inFolder, "page.html"), "<html><head><link rel=\"stylesheet\" href=\"asciidoctor.css\"></head><body><img src=\"img/logo.png\"><img src=\"img/logo.png\"></body></html>");
+    writeFile(new File(inFolder, "asciidoctor.css"), "body {}");
+    writeFile(new File(inFolder, "img/logo.png"), "logo v1");
+    File outFolder = Files.createTempDir();
+    String css = AssetFingerprints.fingerprint("css/asciidoctor.css", Hashing.sha1().hashString("body {}", Charsets.UTF_8));
+    String logo1 = AssetFingerprints.fingerprint("images/logo.png", Hashing.sha1().hashString("logo v1", Charsets.UTF_8));
+
+    ParamPublishHtmlFiles param = new ParamPublishHtmlFiles();
+    param.setInFolder(inFolder);
+    param.setOutFolder(outFolder);
+    param.setCssReplacement(Collections.<String, File> emptyMap());
+    param.setFingerprintAssets(true);
+    PublishUtility.publishHtmlFiles(param);
+
+    Document doc = Jsoup.parse(new File(outFolder, "page.html"), "UTF-8");
+    assertEquals(css, doc.select("link").attr("href"));
+    assertEquals(logo1, doc.select("img").first().attr("src"));
+    assertEquals("logo v1", Files.toString(new File(outFolder, logo1), Charsets.UTF_8));
+    assertEquals("{\n  \"css/asciidoctor.css\": \"" + css + "\",\n  \"images/logo.png\": \"" + logo1 + "\"\n}\n", Files.toString(new File(outFolder, AssetFingerprints.FILE_NAME), Charsets.UTF_8));
+
+    //a new content gets a new name, the previous file is still there for the cached pages:
+    writeFile(new File(inFolder, "img/logo.png"), "logo v2");
+    PublishUtility.publishHtmlFiles(param);
+    String logo2 = AssetFingerprints.fingerprint("images/logo.png", Hashing.sha1().hashString("logo v2", Charsets.UTF_8));
+    assertEquals(logo2, Jsoup.parse(new File(outFolder, "page.html"), "UTF-8").select("img").first().attr("src"));
+    assertTrue(new File(outFolder, logo1).exists());
+    assertTrue(new File(outFolder, logo2).exists());
+  }
+
+  @Test
+  public void testInlineImages() throws Exception {
+    assertEquals("data:image/gif;base64,R0lG", InlineImages.encode("image/gif", "GIF".getBytes(Charsets.US_ASCII)));
+    assertEquals("image/svg+xml", InlineImages.mimeType("icon.SVG"));
+    assertEquals(null, InlineImages.mimeType("icon.bmp"));
+
+    File inFolder = Files.createTempDir();
+    File page1 = new File(inFolder, "page1.html");
+    File page2 = new File(inFolder, "page2.html");
+    writeFile(page1, "<html><head></head><body><h1>Page 1</h1><img src=\"img/note.png\"><img src=\"img/note.png\"><img src=\"img/large.png\"><div id=\"footer\"></div></body></html>");
+    writeFile(page2, "<html><head></head><body><h1>Page 2</h1><img src=\"img/note.png\"><div id=\"footer\"></div></body></html>");
+    writeFile(new File(inFolder, "img/note.png"), "note");
+    writeFile(new File(inFolder, "img/large.png"), Strings.repeat("large", 300));
+    File outFolder = Files.createTempDir();
+
+    PublishStatistics statistics = new PublishStatistics();
+    ParamPublishHtmlFiles param = new ParamPublishHtmlFiles();
+    param.setInFolder(inFolder);
+    param.setInFiles(Arrays.asList(page1, page2));
+    param.setOutFolder(outFolder);
+    param.setCssReplacement(Collections.<String, File> emptyMap());
+    param.setInlineImageMaxSize(1024);
+    param.setIncremental(true);
+    param.setStatistics(statistics);
+    PublishUtility.publishHtmlFiles(param);
+
+    String note = InlineImages.encode("image/png", "note".getBytes(Charsets.US_ASCII));
+    Document doc = Jsoup.parse(new File(outFolder, "page1.html"), "UTF-8");
+    assertEquals(note, doc.select("body > img").get(0).attr("src"));
+    assertEquals(note, doc.select("body > img").get(1).attr("src"));
+    assertEquals("images/large.png", doc.select("body > img").get(2).attr("src"));
+    assertTrue(new File(outFolder, "images/large.png").exists());
+    assertFalse(new File(outFolder, "images/note.png").exists());
+    assertEquals(3, statistics.getCount(PublishStatistics.Counter.IMAGES_INLINED));
+
+    //the navigation images are inlined and not copied:
+    byte[] next = Resources.toByteArray(Resources.getResource("nav_images/next.gif"));
+    assertEquals(InlineImages.encode("image/gif", next), doc.select("table.navigation img[alt=Next]").first().attr("src"));
+    assertFalse(new File(outFolder, "images/next.gif").exists());
+
+    //an unchanged page is skipped, a page with a changed inlined image is published again:
+    PublishUtility.publishHtmlFiles(param);
+    assertEquals(2, statistics.getCount(PublishStatistics.Counter.PAGES_SKIPPED));
+    File image = new File(inFolder, "img/note.png");
+    writeFile(image, "note v2");
+    PublishUtility.publishHtmlFiles(param);
+    assertEquals(2, statistics.getCount(PublishStatistics.Counter.PAGES_SKIPPED));
+    String note2 = InlineImages.encode("image/png", "note v2".getBytes(Charsets.US_ASCII));
+    assertEquals(note2, Jsoup.parse(new File(outFolder, "page2.html"), "UTF-8").select("body > img").first().attr("src"));
+
+    //the encoded form is cached, a new content is only seen in the next run:
+    InlineImages inlineImages = new InlineImages(1024);
+    assertEquals(note2, inlineImages.dataUri(image));
+    writeFile(image, "note v3");
+    assertEquals(note2, inlineImages.dataUri(image));
+    assertEquals(null, new InlineImages(4).dataUri(image));
+  }
+
+  @Test
+  public void testElementsNotInScaling() throws Exception {
+    for (int size : new int[]{10000, 50000, 100000}) {
+      List<CountingName> items = new ArrayList<>();
+      List<CountingName> reference = new ArrayList<>();
+      for (int i = 0; i < size; i++) {
+        items.add(new CountingName("page" + i + ".html"));
+        if (i % 2 == 0) {
+          reference.add(new CountingName("page" + i + ".html"));
+        }
+      }
+      CountingName.operations = 0;
+      List<CountingName> result = PublishUtility.elementsNotIn(items, reference);
+      assertEquals(size / 2, result.size());
+      assertEquals("page1.html", result.get(0).name);
+      //a quadratic implementation would need about size * size / 4 operations:
+      assertTrue("operations for " + size + " names: " + CountingName.operations, CountingName.operations < 4L * size);
+    }
+  }
+
+  @Test
+  public void testCopyRecDeletesRemovedFiles() throws Exception {
+    File source = Files.createTempDir();
+    File target = Files.createTempDir();
+    for (int i = 0; i < 1000; i++) {
+      writeFile(new File(source, "page" + i + ".html"), "page " + i);
+      writeFile(new File(target, "old" + i + ".html"), "old " + i);
+    }
+    writeFile(new File(target, "page0.html"), "outdated");
+    PublishUtility.copyRec(source, target);
+    assertEquals(1000, target.list().length);
+    assertEquals("page 0", Files.toString(new File(target, "page0.html"), Charsets.UTF_8));
+
+    //the unchanged files are not copied again:
+    File page1 = new File(target, "page1.html");
+    page1.setLastModified(10000);
+    writeFile(new File(source, "page2.html"), "modified");
+    PublishUtility.copyRec(source, target);
+    assertEquals(10000, page1.lastModified());
+    assertEquals("modified", Files.toString(new File(target, "page2.html"), Charsets.UTF_8));
+
+    //folders replaced by a file and removed folders (with sub folders) are deleted:
+    new File(target, "page3.html").delete();
+    writeFile(new File(target, "page3.html/sub/file.html"), "folder");
+    writeFile(new File(target, "removed/sub/file.html"), "removed");
+    PublishUtility.copyRec(source, target);
+    assertEquals("page 3", Files.toString(new File(target, "page3.html"), Charsets.UTF_8));
+    assertFalse("removed folder", new File(target, "removed").exists());
+    assertEquals(1000, target.list().length);
+  }
+
+  /**
+   * Name counting the calls to {@link #equals(Object)} and {@link #hashCode()}.
+   */
+  private static class CountingName {
+    private static long operations;
+    private final String name;
+
+    CountingName(String name) {
+      this.name = name;
+    }
+
+    @Override
+    public int hashCode() {
+      operations++;
+      return name.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      operations++;
+      return obj instanceof CountingName && name.equals(((CountingName) obj).name);
+    }
+  }
+
+  private static void writeFile(File file, String content) throws IOException {
+    Files.createParentDirs(file);
+    Files.write(content, file, Charsets.UTF_8);
+  }
+
   private FileAction createCopyAction(File inputFolder, File outputFolder, String filename) {
     return FileAction.copy(new File(inputFolder, filename), new File(outputFolder, filename));
   }
@@ -305,6 +981,457 @@ public class PublishUtilityTest {
     assertEquals(expectedContent, actualContent);
   }
 
+  @Test
+  public void testPublishHtmlFilesParallel() throws Exception {
+    List<File> pages = Arrays.asList(new File("src/test/resources/pages/example1.html"), new File("src/test/resources/pages/example2.html"));
+
+    ParamPublishHtmlFiles param = new ParamPublishHtmlFiles();
+    param.setInFolder(new File("src/test/resources/pages"));
+    param.setInFiles(pages);
+    param.setFixExternalLinks(true);
+    param.setFixXrefLinks(true);
+    File sequentialOutFolder = Files.createTempDir();
+    param.setOutFolder(sequentialOutFolder);
+    PublishUtility.publishHtmlFiles(param);
+
+    File parallelOutFolder = Files.createTempDir();
+    param.setOutFolder(parallelOutFolder);
+    param.setThreads(4);
+    PublishUtility.publishHtmlFiles(param);
+
+    for (File page : pages) {
+      File expectedFile = new File(sequentialOutFolder, page.getName());
+      File actualFile = new File(parallelOutFolder, page.getName());
+      assertTrue("File '" + actualFile.getAbsolutePath() + "' has the same content as the sequential output", Files.equal(expectedFile, actualFile));
+    }
+  }
+
+  @Test
+  public void testPublishHtmlFilesZipSink() throws Exception {
+    List<File> pages = Arrays.asList(new File("src/test/resources/pages/example1.html"), new File("src/test/resources/pages/example2.html"));
+
+    ParamPublishHtmlFiles param = new ParamPublishHtmlFiles();
+    param.setInFolder(new File("src/test/resources/pages"));
+    param.setInFiles(pages);
+    param.setFixXrefLinks(true);
+    File outFolder = Files.createTempDir();
+    param.setOutFolder(outFolder);
+    File zipFile = new File(Files.createTempDir(), "doc.zip");
+    try (ZipSink zipSink = new ZipSink(zipFile, "doc")) {
+      param.setSinks(Collections.<PublishSink> singletonList(zipSink));
+      param.setThreads(4);
+      PublishUtility.publishHtmlFiles(param);
+    }
+
+    List<String> names = new ArrayList<>();
+    try (ZipFile zip = new ZipFile(zipFile)) {
+      for (ZipEntry entry : Collections.list(zip.entries())) {
+        names.add(entry.getName());
+        File expectedFile = new File(outFolder, entry.getName().substring("doc/".length()));
+        assertTrue("Entry '" + entry.getName() + "' has the same content as the folder output", Arrays.equals(Files.toByteArray(expectedFile), ByteStreams.toByteArray(zip.getInputStream(entry))));
+      }
+    }
+    assertEquals("pages first (in the order of the list)", Arrays.asList("doc/example1.html", "doc/example2.html"), names.subList(0, 2));
+    assertTrue("nav images", names.contains("doc/images/next.gif"));
+
+    //only the zip is written (the out folder contains the output of the previous run):
+    File page1 = new File(outFolder, "example1.html");
+    page1.delete();
+    param.setWriteOutFolder(false);
+    try (ZipSink zipSink = new ZipSink(zipFile, "doc")) {
+      param.setSinks(Collections.<PublishSink> singletonList(zipSink));
+      PublishUtility.publishHtmlFiles(param);
+    }
+    assertFalse("page not written in the out folder", page1.exists());
+    try (ZipFile zip = new ZipFile(zipFile)) {
+      assertEquals("entries", names.size(), zip.size());
+    }
+  }
+
+  @Test
+  public void testPublishHtmlFilesAssetCollision() throws Exception {
+    //the images of the pages have the same name, they are copied to the same target:
+    File inFolder = Files.createTempDir();
+    List<File> pages = new ArrayList<>();
+    for (int i = 0; i < 40; i++) {
+      File page = new File(inFolder, "page" + i + ".html");
+      writeFile(page, "<html><head></head><body><h1>Page " + i + "</h1><img src=\"img" + i + "/logo.png\"><div id=\"footer\"></div></body></html>");
+      writeFile(new File(inFolder, "img" + i + "/logo.png"), "logo " + i);
+      pages.add(page);
+    }
+    for (int run = 0; run < 5; run++) {
+      ParamPublishHtmlFiles param = new ParamPublishHtmlFiles();
+      param.setInFolder(inFolder);
+      param.setInFiles(pages);
+      param.setCssReplacement(Collections.<String, File> emptyMap());
+      File outFolder = Files.createTempDir();
+      param.setOutFolder(outFolder);
+      File zipFile = new File(Files.createTempDir(), "doc.zip");
+      try (ZipSink zipSink = new ZipSink(zipFile, "doc")) {
+        param.setSinks(Collections.<PublishSink> singletonList(zipSink));
+        param.setThreads(4);
+        PublishUtility.publishHtmlFiles(param);
+      }
+      //as in a sequential run, the image of the last page is kept:
+      assertEquals("logo 39", Files.toString(new File(outFolder, "images/logo.png"), Charsets.UTF_8));
+      try (ZipFile zip = new ZipFile(zipFile)) {
+        assertEquals("logo 39", new String(ByteStreams.toByteArray(zip.getInputStream(zip.getEntry("doc/images/logo.png"))), Charsets.UTF_8));
+      }
+    }
+  }
+
+  @Test
+  public void testZipSinkAbort() throws Exception {
+    File zipFile = new File(Files.createTempDir(), "doc.zip");
+    ZipSink zipSink = new ZipSink(zipFile, "doc");
+    zipSink.putPage(1, "page1.html", Jsoup.parse("<p>Page 1</p>"));
+    zipSink.putPage(0, "page0.html", Jsoup.parse(Strings.repeat("<p>Page 0</p>", 10000)));
+    assertTrue(zipFile.exists());
+    zipSink.abort();
+    assertFalse("incomplete zip file deleted", zipFile.exists());
+    zipSink.close();
+    assertFalse(zipFile.exists());
+  }
+
+  @Test
+  public void testZipSinkFixExternalLinks() throws Exception {
+    assertEquals("<a href=\"http://x.org\" class=\"c\" target=\"_blank\">x</a><!-- <a href=\"http://y.org\"> --><script>s = '<a href=\"http://z.org\">';</script><abbr title=\"http://\">a</abbr>",
+        ExternalLinkPatcher.patch("<a href=\"http://x.org\" class=\"c\">x</a><!-- <a href=\"http://y.org\"> --><script>s = '<a href=\"http://z.org\">';</script><abbr title=\"http://\">a</abbr>"));
+    assertEquals("<a target=\"_blank\" href=\"ftp://x.org\">x</a><a href=\"x.html\" target=\"_self\">y</a>", ExternalLinkPatcher.patch("<a target=\"_self\" href=\"ftp://x.org\">x</a><a href=\"x.html\" target=\"_self\">y</a>"));
+
+    File inFolder = Files.createTempDir();
+    writeFile(new File(inFolder, "page.html"), "<html><head><title>Links</title><script>var s = '<a href=\"http://d.org\">';</script></head><body>"
+        + "<p>See <a href=\"http://a.org\">a</a>, <a href=\"https://b.org?x=1&amp;y=2\" target=\"_self\" class=\"x\">b</a> and <a href=\"#top\">c</a>.</p>"
+        + "<!-- <a href=\"http://c.org\">c</a> --><table><tr><td><a href=\"ftp://e.org\" title=\"a > b\">e</a></td></tr></table></body></html>");
+    for (OutputMode mode : OutputMode.values()) {
+      for (boolean minify : new boolean[]{false, true}) {
+        ParamPublishHtmlFiles expectedParam = new ParamPublishHtmlFiles();
+        expectedParam.setInFolder(inFolder);
+        expectedParam.setOutFolder(Files.createTempDir());
+        expectedParam.setCssReplacement(Collections.<String, File> emptyMap());
+        expectedParam.setFixExternalLinks(true);
+        expectedParam.setOutputMode(mode);
+        expectedParam.setMinify(minify);
+        PublishUtility.publishHtmlFiles(expectedParam);
+        byte[] expected = Files.toByteArray(new File(expectedParam.getOutFolder(), "page.html"));
+
+        //the default configuration of the mojo: the external links are only fixed in the zip, the pages are published once.
+        ParamPublishHtmlFiles param = new ParamPublishHtmlFiles();
+        param.setInFolder(inFolder);
+        param.setOutFolder(Files.createTempDir());
+        param.setCssReplacement(Collections.<String, File> emptyMap());
+        param.setOutputMode(mode);
+        param.setMinify(minify);
+        param.setIncremental(true);
+        File zipFile = new File(Files.createTempDir(), "doc.zip");
+        for (int run = 0; run < 3; run++) {
+          PublishStatistics statistics = new PublishStatistics();
+          param.setStatistics(statistics);
+          //last run: only the zip is written, the page is serialized from the document
+          param.setWriteOutFolder(run < 2);
+          try (ZipSink zipSink = new ZipSink(zipFile, "doc")) {
+            zipSink.setMinify(minify);
+            zipSink.setFixExternalLinks(true);
+            param.setSinks(Collections.<PublishSink> singletonList(zipSink));
+            PublishUtility.publishHtmlFiles(param);
+          }
+          String message = mode + ", minify=" + minify + ", run " + run;
+          assertEquals(message, run == 1 ? 0 : 1, statistics.getCount(PublishStatistics.Counter.PAGES_PUBLISHED));
+          assertEquals(message, run == 1 ? 1 : 0, statistics.getCount(PublishStatistics.Counter.PAGES_SKIPPED));
+          assertFalse(message, Files.toString(new File(param.getOutFolder(), "page.html"), Charsets.UTF_8).contains("_blank"));
+          try (ZipFile zip = new ZipFile(zipFile)) {
+            assertTrue(message, Arrays.equals(expected, ByteStreams.toByteArray(zip.getInputStream(zip.getEntry("doc/page.html")))));
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testUnzipSubFolder() throws Exception {
+    File zipFile = new File(Files.createTempDir(), "docs.zip");
+    try (ParallelZipWriter writer = new ParallelZipWriter(new FileOutputStream(zipFile), 6, 2)) {
+      writer.putEntry("a/x.html", "x".getBytes(Charsets.UTF_8));
+      writer.putEntry("a/images/i.png", "i".getBytes(Charsets.UTF_8));
+      writer.putEntry("ab/y.html", "y".getBytes(Charsets.UTF_8));
+      writer.putEntry("b/z.html", "z".getBytes(Charsets.UTF_8));
+    }
+
+    File streamFolder = Files.createTempDir();
+    try (InputStream in = new FileInputStream(zipFile)) {
+      assertEquals(2, ZipUtility.unzip(in, streamFolder, "a"));
+    }
+    File fileFolder = Files.createTempDir();
+    assertEquals(2, ZipUtility.unzip(zipFile, fileFolder, "/a/", 4));
+    for (File folder : Arrays.asList(streamFolder, fileFolder)) {
+      assertEquals("x", Files.toString(new File(folder, "a/x.html"), Charsets.UTF_8));
+      assertEquals("i", Files.toString(new File(folder, "a/images/i.png"), Charsets.UTF_8));
+      assertFalse(new File(folder, "ab").exists());
+      assertFalse(new File(folder, "b").exists());
+    }
+
+    File allFolder = Files.createTempDir();
+    assertEquals(4, ZipUtility.unzip(zipFile, allFolder, null, 4));
+  }
+
+  @Test
+  public void testZipUrlToFile() throws Exception {
+    File folder = new File(Files.createTempDir(), "My Documents+1");
+    File zipFile = new File(folder, "docs.zip");
+    Files.createParentDirs(zipFile);
+    try (ParallelZipWriter writer = new ParallelZipWriter(new FileOutputStream(zipFile), 6, 1)) {
+      writer.putEntry("a/x.html", "x".getBytes(Charsets.UTF_8));
+    }
+    //the space is not encoded, the URL is not a valid URI:
+    URL url = new URL("file:" + zipFile.getAbsolutePath().replace(File.separatorChar, '/'));
+    assertEquals(zipFile.getAbsoluteFile(), ZipUtility.toFile(url));
+    assertEquals(zipFile.getAbsoluteFile(), ZipUtility.toFile(zipFile.toURI().toURL()));
+    assertEquals(null, ZipUtility.toFile(new URL("file://server/share/docs.zip")));
+    assertEquals(1, ZipUtility.unzip(ZipUtility.toFile(url), Files.createTempDir(), "a", 1));
+  }
+
+  @Test
+  public void testUnzipOutsideOfFolder() throws Exception {
+    File zipFile = new File(Files.createTempDir(), "evil.zip");
+    try (ParallelZipWriter writer = new ParallelZipWriter(new FileOutputStream(zipFile), 6, 1)) {
+      writer.putEntry("a/../../evil.html", "evil".getBytes(Charsets.UTF_8));
+    }
+    File folder = new File(Files.createTempDir(), "out");
+    try {
+      ZipUtility.unzip(zipFile, folder, null, 1);
+      fail("IOException expected");
+    }
+    catch (IOException e) {
+      //expected
+    }
+    assertFalse(new File(folder.getParentFile(), "evil.html").exists());
+  }
+
+  @Test
+  public void testPageTitleIndex() throws Exception {
+    File page1 = new File("src/test/resources/pages/example1.html");
+    File page2 = new File("src/test/resources/pages/example2.html");
+
+    PageTitleIndex index = PageTitleIndex.build(Arrays.asList(page1, page2));
+    assertEquals("size", 2, index.size());
+    assertEquals("indexOf page1", 0, index.indexOf(page1));
+    assertEquals("indexOf page2", 1, index.indexOf(page2));
+    assertEquals("indexOf unknown page", -1, index.indexOf(new File("src/test/resources/pages/other.html")));
+    assertEquals("title page1", "Example Manual 1", index.getTitle(0));
+    assertEquals("title page2", "Example Manual 2", index.getTitle(1));
+    assertEquals("href page2", "example2.html", index.getHref(1));
+    assertEquals("root title", "Example Manual 1", index.createRootItem().getTitle());
+    assertEquals("root file name", "example1.html", index.createRootItem().getFileName());
+  }
+
+  @Test
+  public void testReadAndFindFirstHeader() throws Exception {
+    File file = File.createTempFile("header", ".html");
+    Files.write("<html><head><!-- </h1> --></head><body><div><h2>Section <em>One</em></h2><h1>Other</h1></div></body></html>", file, Charsets.UTF_8);
+    assertEquals("Section One", PublishUtility.readAndFindFirstHeader(file));
+
+    Files.write("<html><body><p>No header</p></body></html>", file, Charsets.UTF_8);
+    assertEquals(null, PublishUtility.readAndFindFirstHeader(file));
+  }
+
+  @Test
+  public void testReadAndFindFirstHeaderCharset() throws Exception {
+    File file = File.createTempFile("header", ".html");
+    Files.write("<html><head><meta charset=\"UTF-8\"></head><body><h1>\u00dcbersicht \u65e5\u672c</h1></body></html>", file, Charsets.UTF_8);
+    assertEquals("\u00dcbersicht \u65e5\u672c", PublishUtility.readAndFindFirstHeader(file));
+
+    Files.write("<html><head><meta charset=\"ISO-8859-1\"></head><body><h1>\u00dcbersicht</h1></body></html>", file, Charsets.ISO_8859_1);
+    assertEquals("\u00dcbersicht", PublishUtility.readAndFindFirstHeader(file));
+
+    Files.write("<html><body><h1>\u00dcbersicht</h1></body></html>", file, Charsets.ISO_8859_1);
+    assertEquals("\u00dcbersicht", PublishUtility.readAndFindFirstHeader(file, "ISO-8859-1"));
+
+    Files.write("\ufeff<html><body><h1>\u00dcbersicht</h1></body></html>", file, Charsets.UTF_16);
+    assertEquals("\u00dcbersicht", PublishUtility.readAndFindFirstHeader(file));
+
+    //header after the first chunk, end tag cut between two chunks:
+    StringBuilder sb = new StringBuilder("<html><body>");
+    while (sb.length() < 8 * 1024 - 10) {
+      sb.append("<p>paragraph</p>\n");
+    }
+    while (sb.length() < 8 * 1024 - 3) {
+      sb.append(' ');
+    }
+    sb.append("<h2>\u00c9t\u00e9</h2><h1>Other</h1></body></html>");
+    Files.write(sb.toString(), file, Charsets.UTF_8);
+    assertEquals("\u00c9t\u00e9", PublishUtility.readAndFindFirstHeader(file));
+
+    byte[] bytes = "<p></h3 \n>".getBytes(Charsets.US_ASCII);
+    assertEquals(bytes.length, PublishUtility.findHeaderEnd(bytes, 0, bytes.length));
+    assertEquals(-1, PublishUtility.findHeaderEnd(bytes, 0, bytes.length - 1));
+    assertEquals(-1, PublishUtility.findHeaderEnd("</h7>".getBytes(Charsets.US_ASCII), 0, 5));
+  }
+
+  @Test
+  public void testAssetStore() throws Exception {
+    File inFolder = Files.createTempDir();
+    File outFolder = Files.createTempDir();
+    File logo = new File(inFolder, "logo.png");
+    Files.write("logo", logo, Charsets.UTF_8);
+    File logoCopy = new File(new File(inFolder, "sub"), "logo.png");
+    Files.createParentDirs(logoCopy);
+    Files.write("logo", logoCopy, Charsets.UTF_8);
+    File otherLogo = new File(new File(inFolder, "other"), "logo.png");
+    Files.createParentDirs(otherLogo);
+    Files.write("other logo", otherLogo, Charsets.UTF_8);
+    File target = new File(new File(outFolder, "images"), "logo.png");
+
+    AssetStore store = new AssetStore();
+    assertTrue("first copy", store.copy(logo, target));
+    assertFalse("same source", store.copy(logo, target));
+    assertFalse("same content", store.copy(logoCopy, target));
+    assertTrue("other content", store.copy(otherLogo, target));
+    assertEquals("other logo", Files.toString(target, Charsets.UTF_8));
+    assertEquals("copied count", 2, store.getCopiedCount());
+    assertEquals("avoided count", 2, store.getAvoidedCount());
+
+    //the page with the highest index wins, whatever the order of the calls:
+    File target2 = new File(new File(outFolder, "images"), "logo2.png");
+    assertTrue(store.copy(2, otherLogo, target2));
+    assertFalse("lower page index", store.copy(1, logo, target2));
+    assertFalse("same content", store.copy(3, otherLogo, target2));
+    assertFalse("lower page index than the same content", store.copy(2, logo, target2));
+    assertEquals("other logo", Files.toString(target2, Charsets.UTF_8));
+    assertTrue(store.copy(4, logo, target2));
+    assertEquals("logo", Files.toString(target2, Charsets.UTF_8));
+  }
+
+  @Test
+  public void testCopyStrategy() throws Exception {
+    File inFolder = Files.createTempDir();
+    File source = new File(inFolder, "doc.pdf");
+    Files.write("pdf content", source, Charsets.UTF_8);
+    File otherSource = new File(inFolder, "other.pdf");
+    Files.write("other pdf content", otherSource, Charsets.UTF_8);
+
+    for (CopyStrategy strategy : CopyStrategy.values()) {
+      File target = new File(new File(Files.createTempDir(), "pdf"), "doc.pdf");
+      strategy.copy(source, target);
+      assertEquals(strategy.name(), "pdf content", Files.toString(target, Charsets.UTF_8));
+
+      //the existing target is replaced, the source is never modified (even if it is a hard link):
+      strategy.copy(otherSource, target);
+      assertEquals(strategy.name(), "other pdf content", Files.toString(target, Charsets.UTF_8));
+      assertEquals(strategy.name(), "pdf content", Files.toString(source, Charsets.UTF_8));
+    }
+
+    //a source shorter than expected (truncated during the copy) fails instead of looping:
+    File target = new File(Files.createTempDir(), "doc.pdf");
+    try (FileChannel in = new FileInputStream(source).getChannel(); FileChannel out = new FileOutputStream(target).getChannel()) {
+      CopyStrategy.transfer(in, source.length() + 10, out);
+      fail("IOException expected");
+    }
+    catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("truncated"));
+    }
+  }
+
+  @Test
+  public void testAssetStoreConcurrent() throws Exception {
+    File inFolder = Files.createTempDir();
+    final File source = new File(inFolder, "style.css");
+    Files.write("body { color: black; }", source, Charsets.UTF_8);
+    final File target = new File(new File(Files.createTempDir(), "css"), "style.css");
+
+    final AssetStore store = new AssetStore();
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Future<Boolean>> futures = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      futures.add(executor.submit(new Callable<Boolean>() {
+        @Override
+        public Boolean call() throws Exception {
+          return store.copy(source, target);
+        }
+      }));
+    }
+    for (Future<Boolean> future : futures) {
+      future.get();
+    }
+    executor.shutdown();
+    assertEquals("copied count", 1, store.getCopiedCount());
+    assertEquals("avoided count", 99, store.getAvoidedCount());
+    assertTrue("target content", Files.equal(source, target));
+  }
+
+  @Test
+  public void testPublishHtmlFilesIncremental() throws Exception {
+    File inFolder = Files.createTempDir();
+    File page1 = new File(inFolder, "example1.html");
+    File page2 = new File(inFolder, "example2.html");
+    Files.copy(new File("src/test/resources/pages/example1.html"), page1);
+    Files.copy(new File("src/test/resources/pages/example2.html"), page2);
+    File outFolder = Files.createTempDir();
+    File outFile1 = new File(outFolder, "example1.html");
+    File outFile2 = new File(outFolder, "example2.html");
+
+    ParamPublishHtmlFiles param = new ParamPublishHtmlFiles();
+    param.setInFolder(inFolder);
+    param.setInFiles(Collections.singletonList(page1));
+    param.setFixExternalLinks(false);
+    param.setFixXrefLinks(false);
+    param.setOutFolder(outFolder);
+    param.setIncremental(true);
+    PublishUtility.publishHtmlFiles(param);
+    assertTrue("manifest exists", new File(outFolder, PublishManifest.FILE_NAME).exists());
+    String expected1 = Files.toString(outFile1, Charsets.UTF_8);
+
+    //unchanged: the page is not published again (the marker is kept)
+    Files.write("marker", outFile1, Charsets.UTF_8);
+    PublishUtility.publishHtmlFiles(param);
+    assertEquals("marker", Files.toString(outFile1, Charsets.UTF_8));
+
+    //option modified:
+    param.setFixExternalLinks(true);
+    PublishUtility.publishHtmlFiles(param);
+    assertEquals(expected1, Files.toString(outFile1, Charsets.UTF_8));
+
+    //input modified:
+    Files.write("marker", outFile1, Charsets.UTF_8);
+    Files.append("<!-- modified -->", page1, Charsets.UTF_8);
+    PublishUtility.publishHtmlFiles(param);
+    assertTrue("page published again", Files.toString(outFile1, Charsets.UTF_8).contains("modified"));
+
+    //page list modified (navigation):
+    Files.write("marker", outFile1, Charsets.UTF_8);
+    param.setInFiles(Arrays.asList(page1, page2));
+    PublishUtility.publishHtmlFiles(param);
+    assertTrue("page published again", Files.toString(outFile1, Charsets.UTF_8).contains("<a href=\"example2.html\" "));
+    assertTrue("page2 published", outFile2.exists());
+
+    //not incremental: the manifest is removed
+    param.setIncremental(false);
+    PublishUtility.publishHtmlFiles(param);
+    assertFalse("manifest exists", new File(outFolder, PublishManifest.FILE_NAME).exists());
+  }
+
+  @Test
+  public void testPublishManifest() throws Exception {
+    File outFolder = Files.createTempDir();
+    PublishManifest manifest = new PublishManifest();
+    manifest.putPage(new PublishManifest.Page("page.html", "abc", "def", Collections.singletonList(new PublishManifest.Asset("images/logo.png", new File("/tmp/in/logo.png"), "123"))));
+    manifest.putPage(new PublishManifest.Page("other.html", "ghi", "jkl", Collections.<PublishManifest.Asset> emptyList()));
+    manifest.save(outFolder);
+
+    PublishManifest loaded = PublishManifest.load(outFolder);
+    assertEquals("size", 2, loaded.size());
+    PublishManifest.Page page = loaded.getPage("page.html");
+    assertEquals("abc", page.getInputHash());
+    assertEquals("def", page.getOptionsHash());
+    assertEquals(1, page.getAssets().size());
+    assertEquals("images/logo.png", page.getAssets().get(0).getTargetPath());
+    assertEquals(new File("/tmp/in/logo.png"), page.getAssets().get(0).getSource());
+    assertEquals("123", page.getAssets().get(0).getSourceHash());
+    assertEquals(0, loaded.getPage("other.html").getAssets().size());
+
+    Files.write("corrupted", new File(outFolder, PublishManifest.FILE_NAME), Charsets.UTF_8);
+    assertEquals("size", 0, PublishManifest.load(outFolder).size());
+  }
+
   private static String normalizeLineEnds(String s) {
     return s.replace("\r\n", "\n").replace('\r', '\n');
   }